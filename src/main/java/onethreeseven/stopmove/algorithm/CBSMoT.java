@@ -2,10 +2,8 @@ package onethreeseven.stopmove.algorithm;
 
 import onethreeseven.datastructures.model.*;
 
-import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Comparator;
 
 /**
  * Implementation of the Stop/Move classifier, CB-SMoT, from
@@ -27,118 +25,269 @@ public class CBSMoT {
      * @return A spatio-temporal trajectory with an extra dimension indicating whether points are moving or stopping.
      */
     public STStopTrajectory run(SpatioCompositeTrajectory<? extends STPt> traj, double epsMeters, long minTimeMillis){
+        //make an output trajectory that has the stop meta-data
+        return runLabels(traj, epsMeters, minTimeMillis).toStopTrajectory();
+    }
 
-        //make an output trajectory that has the stop meta-data, set all stops to false for now
-        boolean isCartesian = traj.isInCartesianMode();
-        STStopTrajectory output = new STStopTrajectory(isCartesian, traj.getProjection());
+    /**
+     * Same as {@link #run(SpatioCompositeTrajectory, double, long)}, but returns a lightweight view of the labels
+     * rather than copying the trajectory.
+     * @param traj The trajectory whose points will be classified.
+     * @param epsMeters How close points must be to each other to be considered neighbours.
+     * @param minTimeMillis A neighbourhood of points must last at least this long to be considered stop.
+     * @return The stop/move label of each entry.
+     */
+    public StopMoveLabels runLabels(SpatioCompositeTrajectory<? extends STPt> traj, double epsMeters, long minTimeMillis){
+        return new StopMoveLabels(traj, run(new ColumnarTrajectory(traj), epsMeters, minTimeMillis));
+    }
 
-        for (STPt stPt : traj) {
-            if(isCartesian){
-                output.addCartesian(stPt.getCoords(), new TimeAndStop(stPt.getTime(), false));
-            }else{
-                output.addGeographic(stPt.getCoords(), new TimeAndStop(stPt.getTime(), false));
+    /**
+     * Same as {@link #run(SpatioCompositeTrajectory, double, long)}, but runs directly on a columnar snapshot
+     * and only returns the stop labels. The grown neighbourhoods are found in a single pass over the segments,
+     * see {@link #findClusters(ColumnarTrajectory, double)}.
+     * @param traj The trajectory whose points will be classified.
+     * @param epsMeters How close points must be to each other to be considered neighbours.
+     * @param minTimeMillis A neighbourhood of points must last at least this long to be considered stop.
+     * @return The indices of the entries that are stops, all other entries are moves.
+     */
+    public BitSet run(ColumnarTrajectory traj, double epsMeters, long minTimeMillis){
+        return findClusters(traj, epsMeters).getStops(minTimeMillis);
+    }
+
+    /**
+     * Same as {@link #run(ColumnarTrajectory, double, long)} but on a trajectory whose duplicate fixes are collapsed.
+     * A cluster is a maximal run of collapsed entries whose consecutive segments are within eps
+     * (see {@link #findClusters(ColumnarTrajectory, double)}); it is a stop if it stands for at least two fixes
+     * and lasts (from its first fix to its last fix) at least the minimum stop time.
+     * When the collapsed fixes are identical the labels are the same as running on the original trajectory.
+     * @param traj The collapsed trajectory whose fixes will be classified.
+     * @param epsMeters How close points must be to each other to be considered neighbours.
+     * @param minTimeMillis A neighbourhood of points must last at least this long to be considered stop.
+     * @return The indices of the original fixes that are stops, all other fixes are moves.
+     */
+    public BitSet run(CollapsedTrajectory traj, double epsMeters, long minTimeMillis){
+        final ColumnarTrajectory collapsed = traj.getCollapsed();
+        final long[] epochMillis = collapsed.getEpochMillis();
+        final int m = collapsed.size();
+        final BitSet stops = new BitSet(m);
+        int startIdx = 0;
+        for (int k = 1; k <= m; k++) {
+            //note: NaN segments also end a cluster
+            boolean isCut = k == m || !(collapsed.getEuclideanDistance(k-1, k) <= epsMeters);
+            if(isCut){
+                final int nFixes = traj.getOriginalStartIdx(k) - traj.getOriginalStartIdx(startIdx);
+                final long durationMillis = traj.getEndEpochMillis(k - 1) - epochMillis[startIdx];
+                if(nFixes > 1 && durationMillis >= minTimeMillis){
+                    stops.set(startIdx, k);
+                }
+                startIdx = k;
+            }
+        }
+        return traj.expand(stops);
+    }
+
+    /**
+     * Runs {@link #run(ColumnarTrajectory, double, long)} for many minimum stop times at once.
+     * The clusters do not depend on the minimum stop time so they are only found once.
+     * @param traj The trajectory whose points will be classified.
+     * @param epsMeters How close points must be to each other to be considered neighbours.
+     * @param minTimesMillis The minimum stop durations (in milliseconds) to try.
+     * @return The stops for each minimum stop duration (in the same order).
+     */
+    public BitSet[] runSweep(ColumnarTrajectory traj, double epsMeters, long[] minTimesMillis){
+        return findClusters(traj, epsMeters).getStops(minTimesMillis);
+    }
+
+    /**
+     * Finds every cluster that CB-SMoT could label as a stop (and how long it lasted),
+     * regardless of the minimum stop time.
+     * Growing a neighbourhood from its extremes only stops once the next segment is longer than eps,
+     * so the grown neighbourhood of any entry is the maximal run of consecutive segments that are within eps;
+     * this means the clusters can be found in a single pass over the segments.
+     * @param traj The trajectory to find clusters in.
+     * @param epsMeters How close points must be to each other to be considered neighbours.
+     * @return The clusters, a cluster is a stop if it lasted at least the minimum stop time.
+     */
+    public CandidateStops findClusters(ColumnarTrajectory traj, double epsMeters){
+        final int n = traj.size();
+        CandidateStops.Builder clusters = new CandidateStops.Builder();
+        int startIdx = 0;
+        for (int i = 1; i <= n; i++) {
+            //note: NaN segments also end a cluster
+            boolean isCut = i == n || !(traj.getEuclideanDistance(i-1, i) <= epsMeters);
+            if(isCut){
+                //a single entry has an empty neighbourhood so it is never a cluster
+                if(i - 1 > startIdx){
+                    clusters.add(startIdx, i - 1, traj.getDeltaMillis(startIdx, i - 1));
+                }
+                startIdx = i;
+            }
+        }
+        return clusters.build(n);
+    }
+
+    /**
+     * Runs {@link #run(ColumnarTrajectory, double, long)} for many eps values at once.
+     * The clusters are the maximal runs of segments within eps (see {@link #findClusters(ColumnarTrajectory, double)}),
+     * so as eps grows clusters only ever merge, never split. Each segment is bucketed by the smallest eps value
+     * it is within (a binary search over the sorted eps values) and, going through the eps values in ascending order,
+     * each segment of a bucket merges the two clusters either side of it. Only the entries of a cluster whose label
+     * changes are touched by a merge, so all the eps values cost roughly the same as the largest one,
+     * plus a copy of the labels for each eps.
+     * @param traj The trajectory whose points will be classified.
+     * @param epsMeters The eps values to try, in any order.
+     * @param minTimeMillis A neighbourhood of points must last at least this long to be considered stop.
+     * @return The stops for each eps value (in the same order as the eps values).
+     */
+    public BitSet[] runEpsSweep(ColumnarTrajectory traj, double[] epsMeters, long minTimeMillis){
+        final int n = traj.size();
+        final BitSet[] sweep = new BitSet[epsMeters.length];
+
+        //visit the eps values in ascending order (NaN last, it never merges anything)
+        final int[] epsOrder = sortIndices(epsMeters);
+        int nSortedEps = 0;
+        final double[] sortedEps = new double[epsMeters.length];
+        for (int e : epsOrder) {
+            if(!Double.isNaN(epsMeters[e])){
+                sortedEps[nSortedEps++] = epsMeters[e];
             }
         }
 
-        //start the actual stop-classification algorithm
-        BitSet processed = new BitSet();
+        //bucket each segment (segment i joins entry i-1 to entry i) by the first eps it merges at,
+        //NaN segments and segments longer than every eps never merge
+        final int[] firstEps = new int[n];
+        final int[] bucketStarts = new int[nSortedEps + 1];
+        for (int i = 1; i < n; i++) {
+            firstEps[i] = getFirstEpsCovering(sortedEps, nSortedEps, traj.getEuclideanDistance(i-1, i));
+            if(firstEps[i] < nSortedEps){
+                bucketStarts[firstEps[i] + 1]++;
+            }
+        }
+        for (int k = 0; k < nSortedEps; k++) {
+            bucketStarts[k + 1] += bucketStarts[k];
+        }
+        final int[] segmentsByEps = new int[bucketStarts[nSortedEps]];
+        final int[] fillIdx = Arrays.copyOf(bucketStarts, nSortedEps);
+        for (int i = 1; i < n; i++) {
+            if(firstEps[i] < nSortedEps){
+                segmentsByEps[fillIdx[firstEps[i]]++] = i;
+            }
+        }
 
-        for (int idx : sortIndicesBySpeed(traj)) {
-            if(processed.get(idx)){continue;}
+        //every cluster is a run of entries: its first entry knows where it ends and its last entry knows where it starts
+        final int[] clusterEnds = new int[n];
+        final int[] clusterStarts = new int[n];
+        for (int i = 0; i < n; i++) {
+            clusterEnds[i] = i;
+            clusterStarts[i] = i;
+        }
+        final BitSet stops = new BitSet(n);
 
-            final int[] neighbourhood = getNeighbourhood(traj, idx, epsMeters);
-            {
-                int hoodSize = neighbourhood[1] - neighbourhood[0];
-                if(hoodSize <= 0){continue;}
+        for (int k = 0; k < epsOrder.length; k++) {
+            final int e = epsOrder[k];
+            if(k >= nSortedEps){
+                sweep[e] = new BitSet(n);
+                continue;
             }
-            //grow the neighbourhood at the extremes
-            //note: growing at the extremes is a slight optimisation over the original
-            boolean[] lrCanGrow = new boolean[]{true, true};
-            while(lrCanGrow[0] || lrCanGrow[1]){
-                for (int i = 0; i < 2; i++) {
-                    if(!lrCanGrow[i]){continue;}
-                    int[] newHood = getNeighbourhood(traj, neighbourhood[i], epsMeters);
-                    //if the new hood index is not equal it means it grew
-                    if(newHood[i] != neighbourhood[i]){
-                        neighbourhood[i] = newHood[i];
-                    }else{
-                        lrCanGrow[i] = false;
-                    }
+            for (int j = bucketStarts[k]; j < bucketStarts[k + 1]; j++) {
+                final int segment = segmentsByEps[j];
+                final int startIdx = clusterStarts[segment - 1];
+                final int endIdx = clusterEnds[segment];
+                final boolean isStop = traj.getDeltaMillis(startIdx, endIdx) >= minTimeMillis;
+                //all entries of a cluster share a label, so only relabel a side if its label changed
+                if(stops.get(segment - 1) != isStop){
+                    stops.set(startIdx, segment, isStop);
                 }
-            }
-            //done growing the neighbourhood, check whether it meets the min time requirement
-            long neighbourhoodDeltaTime =
-                    ChronoUnit.MILLIS.between(
-                            traj.get(neighbourhood[0]).getTime(),
-                            traj.get(neighbourhood[1]).getTime());
-            //check it we have a cluster of stops
-            if(neighbourhoodDeltaTime >= minTimeMillis){
-                //process all the indices in this cluster and set them as stops
-                for (int i = neighbourhood[0]; i < neighbourhood[1]+1; i++) {
-                    processed.set(i);
-                    output.get(i).setIsStopped(true);
+                if(stops.get(segment) != isStop){
+                    stops.set(segment, endIdx + 1, isStop);
                 }
+                clusterEnds[startIdx] = endIdx;
+                clusterStarts[endIdx] = startIdx;
             }
+            sweep[e] = (BitSet) stops.clone();
         }
-
-        return output;
+        return sweep;
     }
 
-    private int[] getNeighbourhood(SpatioCompositeTrajectory traj, int idx, double epsMeters){
-        final int[] lrIndices = new int[]{idx,idx};
-        //we do epsilon check in both directions so store sum of distance in both directions from idx
-        final double[] sumDists = new double[]{0,0};
-        final int lastIdx = traj.size()-1;
-        //boolean array indicating if we can keep expanding indices left or right
-        final boolean[] lrCanProceed = new boolean[]{idx-1 >= 0, idx + 1 <= lastIdx};
-        //while we can proceed indices either left or right, do so
-        while(lrCanProceed[0] || lrCanProceed[1]){
-            for (int i = 0; i < 2; i++) {
-                if(!lrCanProceed[i]){continue;}
-                boolean isLeft = i == 0;
-                int curIdx = lrIndices[i];
-                int movedIdx = curIdx + ((isLeft) ? -1 : 1);
-                double dist = traj.getEuclideanDistance(curIdx, movedIdx);
-                double totalDistance = sumDists[i] + dist;
-                //check it is within eps meters, if so, add it to the neighbourhood
-                if(totalDistance <= epsMeters){
-                    lrIndices[i] = movedIdx;
-                    sumDists[i] = totalDistance;
-                    //check that moving the indices is within bounds
-                    lrCanProceed[i] = (isLeft ? movedIdx-1 >= 0 : movedIdx+1 <= lastIdx);
-                }else{
-                    lrCanProceed[i] = false;
-                }
+    /**
+     * @param sortedEps The eps values in ascending order.
+     * @param nEps How many eps values there are.
+     * @param segmentLength The length of a segment.
+     * @return The index of the smallest eps the segment is within, or nEps if it is not within any (i.e. NaN).
+     */
+    private static int getFirstEpsCovering(double[] sortedEps, int nEps, double segmentLength){
+        if(Double.isNaN(segmentLength)){
+            return nEps;
+        }
+        int lo = 0;
+        int hi = nEps;
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(segmentLength <= sortedEps[mid]){
+                hi = mid;
+            }else{
+                lo = mid + 1;
             }
         }
-        return lrIndices;
+        return lo;
     }
 
-    private int[] sortIndicesBySpeed(SpatioCompositeTrajectory<? extends STPt> traj){
+    /**
+     * Sorts the indices of the values by their value (as ordered by {@link Double#compare(double, double)}),
+     * indices with the same value stay in index order.
+     * @param values The values.
+     * @return The indices of the values in sorted order.
+     */
+    private static int[] sortIndices(double[] values){
+        final int n = values.length;
 
-        //create the indices
-        int[] indices = new int[traj.size()];
-        for (int i = 0; i < indices.length; i++) {
-            indices[i] = i;
+        //turn each value into a key that sorts like Double.compare
+        final long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = toSortableKey(values[i]);
         }
-        //sort using custom comparator which compares speed
-        indices = Arrays.stream(indices).
-                boxed().
-                sorted(Comparator.comparingDouble(a -> getSpeed(traj, a))).
-                mapToInt(i -> i).
-                toArray();
-        return indices;
-    }
+        final long[] sortedKeys = keys.clone();
+        Arrays.parallelSort(sortedKeys);
+
+        //pack (rank of value, index), equal values share a rank so ties fall back to the index
+        final long[] packed = new long[n];
+        for (int i = 0; i < n; i++) {
+            long rank = lowerBound(sortedKeys, keys[i]);
+            packed[i] = (rank << 32) | i;
+        }
+        Arrays.parallelSort(packed);
 
-    private double getSpeed(SpatioCompositeTrajectory<? extends STPt> traj, int i){
-        if(i == 0){
-            return 0.0;
+        int[] indices = new int[n];
+        for (int i = 0; i < n; i++) {
+            indices[i] = (int) packed[i];
         }
-        long deltaTimeMillis = ChronoUnit.MILLIS.between(traj.get(i-1).getTime(), traj.get(i).getTime());
-        double dist = traj.getEuclideanDistance(i, i-1);
-        return dist/deltaTimeMillis;
+        return indices;
     }
 
+    /**
+     * @return A long whose signed ordering matches {@link Double#compare(double, double)} on the values.
+     */
+    private static long toSortableKey(double value){
+        long bits = Double.doubleToLongBits(value);
+        //flip the magnitude bits of negative values so they sort in reverse
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
 
+    /**
+     * @return The index of the first value in the sorted array that is not less than the key.
+     */
+    private static int lowerBound(long[] sorted, long key){
+        int lo = 0;
+        int hi = sorted.length;
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(sorted[mid] < key){
+                lo = mid + 1;
+            }else{
+                hi = mid;
+            }
+        }
+        return lo;
+    }
 
 }
@@ -0,0 +1,116 @@
+package onethreeseven.stopmove.algorithm;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The runs of entries that a classifier would label as stops if they lasted long enough,
+ * i.e. GB-SMoT's region visits or CB-SMoT's grown neighbourhoods, along with how long each lasted.
+ * Finding these is the expensive (spatial) part of those classifiers and does not depend on the minimum
+ * stop time, so a sweep over minimum stop times only needs to find them once and then threshold the durations.
+ * @author Luke Bermingham
+ */
+public final class CandidateStops {
+
+    private final int[] startIndices;
+    private final int[] endIndices;
+    private final long[] durationsMillis;
+    private final int nEntries;
+
+    /**
+     * @param startIndices The first entry of each candidate (inclusive).
+     * @param endIndices The last entry of each candidate (inclusive).
+     * @param durationsMillis How long each candidate lasted (in milliseconds).
+     * @param nEntries How many entries are in the trajectory.
+     */
+    CandidateStops(int[] startIndices, int[] endIndices, long[] durationsMillis, int nEntries){
+        this.startIndices = startIndices;
+        this.endIndices = endIndices;
+        this.durationsMillis = durationsMillis;
+        this.nEntries = nEntries;
+    }
+
+    /**
+     * @return How many candidates there are.
+     */
+    public int size(){
+        return startIndices.length;
+    }
+
+    public int getStartIdx(int candidate){
+        return startIndices[candidate];
+    }
+
+    public int getEndIdx(int candidate){
+        return endIndices[candidate];
+    }
+
+    public long getDurationMillis(int candidate){
+        return durationsMillis[candidate];
+    }
+
+    /**
+     * @return How many entries are in the trajectory the candidates were found in.
+     */
+    public int getEntryCount(){
+        return nEntries;
+    }
+
+    /**
+     * @param minTimeMillis The minimum duration of a candidate for it to be a stop.
+     * @return The indices of the entries that are stops, all other entries are moves.
+     */
+    public BitSet getStops(long minTimeMillis){
+        BitSet stops = new BitSet(nEntries);
+        for (int i = 0; i < startIndices.length; i++) {
+            if(durationsMillis[i] >= minTimeMillis){
+                stops.set(startIndices[i], endIndices[i] + 1);
+            }
+        }
+        return stops;
+    }
+
+    /**
+     * @param minTimesMillis The minimum stop durations to label the trajectory with.
+     * @return The stops for each minimum stop duration (in the same order).
+     */
+    public BitSet[] getStops(long[] minTimesMillis){
+        BitSet[] stops = new BitSet[minTimesMillis.length];
+        for (int i = 0; i < minTimesMillis.length; i++) {
+            stops[i] = getStops(minTimesMillis[i]);
+        }
+        return stops;
+    }
+
+    /**
+     * Collects candidates as they are found.
+     */
+    static final class Builder {
+
+        private int[] startIndices = new int[16];
+        private int[] endIndices = new int[16];
+        private long[] durationsMillis = new long[16];
+        private int size = 0;
+
+        void add(int startIdx, int endIdx, long durationMillis){
+            if(size == startIndices.length){
+                startIndices = Arrays.copyOf(startIndices, size * 2);
+                endIndices = Arrays.copyOf(endIndices, size * 2);
+                durationsMillis = Arrays.copyOf(durationsMillis, size * 2);
+            }
+            startIndices[size] = startIdx;
+            endIndices[size] = endIdx;
+            durationsMillis[size] = durationMillis;
+            size++;
+        }
+
+        CandidateStops build(int nEntries){
+            return new CandidateStops(
+                    Arrays.copyOf(startIndices, size),
+                    Arrays.copyOf(endIndices, size),
+                    Arrays.copyOf(durationsMillis, size),
+                    nEntries);
+        }
+    }
+
+}
@@ -0,0 +1,341 @@
+package onethreeseven.stopmove.algorithm;
+
+import java.util.BitSet;
+
+/**
+ * Puts a cheap, linear prefilter in front of an expensive stop/move classifier (i.e. {@link POSMIT}).
+ * The prefilter labels the entries that are clearly moving or clearly stopped, and the expensive classifier is
+ * only run on the ambiguous spans that are left (with some context either side), so trajectories that are
+ * mostly highway driving or parking are classified much faster.
+ * <ul>
+ *     <li>Clearly moving: a run of at least the minimum run length of entries where each displacement to the next
+ *     entry is greater than the move displacement. When the window radius is more than one the run must also keep
+ *     heading the same way (each step goes more than the move displacement along the run's first step),
+ *     so any two entries of the run are more than the move displacement apart.</li>
+ *     <li>Clearly stopped: a run of at least the minimum run length of entries that all stay within the still
+ *     displacement of the first entry of the run, and that lasts at least the minimum still duration.</li>
+ * </ul>
+ * Only the entries of a run whose whole window (the window radius either side, clipped to the trajectory) is inside
+ * the run are labelled, see {@link Result#getPrefiltered()}. For classifiers that only look at the entries in a window
+ * this makes the prefilter's labels the same as running the classifier on the whole trajectory
+ * (see {@link #forPOSMIT(POSMIT, int, double, double)}). The labels of the ambiguous entries near the edges of a span
+ * may still differ, as the classifier only sees the context padding around each span.
+ * @author Luke Bermingham
+ */
+public class CascadeClassifier {
+
+    //how far the POSMIT thresholds keep the scores from the minimum stop probability, covers rounding
+    private static final double posmitMargin = 1e-6;
+
+    /**
+     * The expensive classifier the ambiguous spans are given to.
+     */
+    @FunctionalInterface
+    public interface Classifier {
+        /**
+         * @param traj A (sub) trajectory to classify.
+         * @return The indices of the entries that are stops, all other entries are moves.
+         */
+        BitSet classify(ColumnarTrajectory traj);
+    }
+
+    private final Classifier classifier;
+    private final double moveDisplacement;
+    private final double stillDisplacement;
+    private final long minStillMillis;
+    private final int minRunLength;
+    private final int windowRadius;
+    private final int contextPadding;
+
+    /**
+     * @param classifier The expensive classifier to run on the ambiguous spans.
+     * @param moveDisplacement Consecutive displacements above this (in meters) are clearly moving,
+     *                         positive infinity means nothing is clearly moving.
+     * @param stillDisplacement Entries within this (in meters) of each other are clearly stationary,
+     *                          must be less than half the move displacement, negative means nothing is clearly stopped.
+     * @param minStillMillis The minimum duration of a clearly stopped run.
+     * @param minRunLength The minimum number of entries in a clearly moving or clearly stopped run (at least two).
+     * @param windowRadius How many entries either side of an entry must be in the same run for it to be labelled
+     *                     (clearly moving entries always need their neighbours either side).
+     * @param contextPadding How many entries either side of an ambiguous span are also given to the classifier.
+     */
+    public CascadeClassifier(Classifier classifier, double moveDisplacement, double stillDisplacement,
+                             long minStillMillis, int minRunLength, int windowRadius, int contextPadding){
+        if(Double.isNaN(moveDisplacement) || Double.isNaN(stillDisplacement) ||
+                (moveDisplacement != Double.POSITIVE_INFINITY && !(moveDisplacement > 2 * stillDisplacement))){
+            throw new IllegalArgumentException("The move displacement must be more than twice the still displacement.");
+        }
+        if(minRunLength < 2){
+            throw new IllegalArgumentException("The minimum run length must be two or greater.");
+        }
+        if(windowRadius < 0){
+            throw new IllegalArgumentException("The window radius cannot be negative.");
+        }
+        if(contextPadding < 0){
+            throw new IllegalArgumentException("The context padding cannot be negative.");
+        }
+        this.classifier = classifier;
+        this.moveDisplacement = moveDisplacement;
+        this.stillDisplacement = stillDisplacement;
+        this.minStillMillis = minStillMillis;
+        this.minRunLength = minRunLength;
+        this.windowRadius = windowRadius;
+        this.contextPadding = contextPadding;
+    }
+
+    /**
+     * A cascade in front of {@link POSMIT#runDecision(ColumnarTrajectory, int, double, double)} whose labels are
+     * always the same as running POSMIT on the whole trajectory.
+     * The stop probability of an entry is a weighted mean of the kernel scores of the neighbours in its window,
+     * so the thresholds come from the kernel at the minimum stop probability:
+     * clearly stopped entries are close enough to every neighbour in their window that each score is above the
+     * minimum stop probability, and clearly moving entries are far enough from every neighbour in their window that
+     * each score is below it. The window radius and context padding are the cutoff radius of the POSMIT window,
+     * so the ambiguous entries also see their whole window.
+     * @param posmit The POSMIT instance (and kernel) to use.
+     * @param nSearchRadius Essentially how large of a sliding window to use when calculating probabilities.
+     * @param stopVariance The common speed variance within a stop (in meters per second).
+     * @param minStopPr The minimum probability an entry must have to be classified as a stop.
+     * @return The cascade.
+     */
+    public static CascadeClassifier forPOSMIT(POSMIT posmit, int nSearchRadius, double stopVariance, double minStopPr){
+        final POSMITKernel kernel = posmit.getKernel();
+        final int cutoffRadius = new POSMITWindow(nSearchRadius, kernel).getCutoffRadius();
+        double moveDisplacement = Double.POSITIVE_INFINITY;
+        double stillDisplacement = -1;
+        //otherwise every neighbour scores the same (or NaN), so leave it all to POSMIT
+        if(stopVariance > 0 && Double.isFinite(stopVariance) && !Double.isNaN(minStopPr)){
+            final double stillWeight = minStopPr + posmitMargin;
+            if(stillWeight <= 0){
+                //any finite window is a stop
+                stillDisplacement = Double.MAX_VALUE;
+            }else if(stillWeight <= kernel.weight(0)){
+                //entries within this of the run's first entry are within twice this of each other
+                stillDisplacement = getLastWeightAtLeast(kernel, stillWeight) * stopVariance * 0.5;
+            }
+            final double moveWeight = minStopPr - posmitMargin;
+            if(moveWeight > 0){
+                moveDisplacement = getFirstWeightAtMost(kernel, moveWeight) * stopVariance;
+            }
+        }
+        return new CascadeClassifier(
+                traj -> posmit.runDecision(traj, nSearchRadius, stopVariance, minStopPr),
+                moveDisplacement,
+                stillDisplacement,
+                0,
+                2,
+                cutoffRadius,
+                cutoffRadius);
+    }
+
+    /**
+     * @return The largest x (to within bisection) whose kernel weight is at least the given weight,
+     * the weight must be positive and at most the weight at zero.
+     */
+    private static double getLastWeightAtLeast(POSMITKernel kernel, double weight){
+        double lo = 0;
+        double hi = 1;
+        //every kernel is zero (or underflows) eventually
+        while(kernel.weight(hi) >= weight){
+            lo = hi;
+            hi *= 2;
+        }
+        for (int i = 0; i < 64; i++) {
+            final double mid = (lo + hi) * 0.5;
+            if(kernel.weight(mid) >= weight){
+                lo = mid;
+            }else{
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return The smallest x (to within bisection) whose kernel weight is at most the given (positive) weight.
+     */
+    private static double getFirstWeightAtMost(POSMITKernel kernel, double weight){
+        if(kernel.weight(0) <= weight){
+            return 0;
+        }
+        double lo = 0;
+        double hi = 1;
+        while(!(kernel.weight(hi) <= weight)){
+            lo = hi;
+            hi *= 2;
+        }
+        for (int i = 0; i < 64; i++) {
+            final double mid = (lo + hi) * 0.5;
+            if(kernel.weight(mid) <= weight){
+                hi = mid;
+            }else{
+                lo = mid;
+            }
+        }
+        return hi;
+    }
+
+    /**
+     * Labels the trajectory, only running the expensive classifier on the spans the prefilter could not label.
+     * @param traj The trajectory to classify.
+     * @return The labels and how much of the trajectory the expensive classifier skipped.
+     */
+    public Result run(ColumnarTrajectory traj){
+        final int n = traj.size();
+        final BitSet stops = new BitSet(n);
+        final BitSet decided = new BitSet(n);
+        prefilter(traj, decided, stops);
+
+        //give each ambiguous span (with its context) to the expensive classifier
+        int nClassified = 0;
+        int spanStart = decided.nextClearBit(0);
+        while(spanStart < n){
+            final int firstDecided = decided.nextSetBit(spanStart);
+            int spanEnd = firstDecided == -1 ? n : firstDecided;
+            //merge spans whose context would overlap, so no entry is classified twice
+            int nextStart = decided.nextClearBit(spanEnd);
+            while(nextStart < n && nextStart - spanEnd <= 2 * contextPadding){
+                int nextSet = decided.nextSetBit(nextStart);
+                spanEnd = nextSet == -1 ? n : nextSet;
+                nextStart = decided.nextClearBit(spanEnd);
+            }
+            final int contextStart = Math.max(0, spanStart - contextPadding);
+            final int contextEnd = Math.min(n, spanEnd + contextPadding);
+            final BitSet spanStops = classifier.classify(traj.subTrajectory(contextStart, contextEnd));
+            nClassified += contextEnd - contextStart;
+
+            //only take the labels of the ambiguous entries, the prefilter's labels stay
+            for (int i = spanStart; i < spanEnd; i++) {
+                if(!decided.get(i) && spanStops.get(i - contextStart)){
+                    stops.set(i);
+                }
+            }
+            spanStart = nextStart;
+        }
+        return new Result(stops, decided, n, nClassified);
+    }
+
+    /**
+     * Finds the clearly moving and clearly stopped runs in one pass each.
+     * @param traj The trajectory.
+     * @param decided Where to set the entries the prefilter labelled.
+     * @param stops Where to set the entries the prefilter labelled as stops.
+     */
+    private void prefilter(ColumnarTrajectory traj, BitSet decided, BitSet stops){
+        final int n = traj.size();
+        final double[] xs = traj.getX();
+        final double[] ys = traj.getY();
+
+        //clearly moving: runs of long steps, that keep heading the same way if the window reaches past the neighbours
+        final int moveRadius = Math.max(1, windowRadius);
+        int runStart = 0;
+        double headingX = 0;
+        double headingY = 0;
+        for (int i = 1; i < n; i++) {
+            final double length = traj.getEuclideanDistance(i - 1, i);
+            final double dx = xs[i] - xs[i - 1];
+            final double dy = ys[i] - ys[i - 1];
+            //note: NaN is never clearly moving
+            final boolean isFast = length > moveDisplacement;
+            final boolean isSameRun = isFast && runStart < i - 1 &&
+                    (moveRadius == 1 || dx * headingX + dy * headingY > moveDisplacement);
+            if(!isSameRun){
+                if(i - runStart >= minRunLength){
+                    setWindowsInside(runStart, i, moveRadius, n, decided);
+                }
+                //a long step that turned starts the next run
+                runStart = isFast ? i - 1 : i;
+                headingX = dx / length;
+                headingY = dy / length;
+            }
+        }
+        if(n - runStart >= minRunLength){
+            setWindowsInside(runStart, n, moveRadius, n, decided);
+        }
+
+        //clearly stopped: entries that stay near the first entry of their run
+        int anchorIdx = 0;
+        while(anchorIdx < n){
+            int endIdx = anchorIdx + 1;
+            while(endIdx < n && traj.getEuclideanDistance(anchorIdx, endIdx) <= stillDisplacement){
+                endIdx++;
+            }
+            //these runs cannot overlap the moving runs, as their consecutive displacements are at most twice as far
+            if(endIdx - anchorIdx >= minRunLength && traj.getDeltaMillis(anchorIdx, endIdx - 1) >= minStillMillis){
+                setWindowsInside(anchorIdx, endIdx, windowRadius, n, decided);
+                setWindowsInside(anchorIdx, endIdx, windowRadius, n, stops);
+            }
+            anchorIdx = endIdx;
+        }
+    }
+
+    /**
+     * Sets the entries of a run whose window (clipped to the trajectory) is entirely inside the run.
+     * @param runStart The first entry of the run (inclusive).
+     * @param runEnd The last entry of the run (exclusive).
+     * @param radius How many entries either side of an entry its window reaches.
+     * @param n The number of entries in the trajectory.
+     * @param bits Where to set the entries.
+     */
+    private static void setWindowsInside(int runStart, int runEnd, int radius, int n, BitSet bits){
+        final long first = runStart == 0 ? 0 : (long) runStart + radius;
+        final long end = runEnd == n ? n : (long) runEnd - radius;
+        if(first < end){
+            bits.set((int) first, (int) end);
+        }
+    }
+
+    /**
+     * The output of {@link #run(ColumnarTrajectory)}.
+     */
+    public static class Result {
+
+        private final BitSet stops;
+        private final BitSet prefiltered;
+        private final int nEntries;
+        private final int nClassified;
+
+        Result(BitSet stops, BitSet prefiltered, int nEntries, int nClassified){
+            this.stops = stops;
+            this.prefiltered = prefiltered;
+            this.nEntries = nEntries;
+            this.nClassified = nClassified;
+        }
+
+        /**
+         * @return The indices of the entries that are stops, all other entries are moves.
+         */
+        public BitSet getStops() {
+            return stops;
+        }
+
+        /**
+         * @return The indices of the entries that were labelled by the prefilter rather than the expensive classifier.
+         */
+        public BitSet getPrefiltered() {
+            return prefiltered;
+        }
+
+        /**
+         * @return How many entries were labelled by the prefilter.
+         */
+        public int getPrefilteredCount() {
+            return prefiltered.cardinality();
+        }
+
+        /**
+         * @return How many entries were given to the expensive classifier (including context).
+         */
+        public int getClassifiedCount() {
+            return nClassified;
+        }
+
+        /**
+         * @return The fraction of entries the expensive classifier did not have to look at.
+         */
+        public double getSkipRatio(){
+            return nEntries == 0 ? 0 : Math.max(0, nEntries - nClassified) / (double) nEntries;
+        }
+    }
+
+}
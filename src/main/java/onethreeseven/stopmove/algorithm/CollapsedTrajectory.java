@@ -0,0 +1,165 @@
+package onethreeseven.stopmove.algorithm;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A trajectory where each run of consecutive duplicate fixes (i.e. a parked GPS unit repeating its position)
+ * is collapsed into a single weighted entry. A fix is a duplicate if it is within the tolerance of the first fix
+ * of its run; each collapsed entry keeps the position and time of that first fix, how many fixes it stands for
+ * (its weight) and the time of its last fix.
+ * {@link POSMIT#run(CollapsedTrajectory, int, double)} and {@link CBSMoT#run(CollapsedTrajectory, double, long)}
+ * classify the collapsed entries using their weights and time spans, then expand the labels back to the original fixes.
+ * @author Luke Bermingham
+ */
+public final class CollapsedTrajectory {
+
+    //sub-centimetre
+    private static final double defaultToleranceMeters = 0.01;
+
+    private final ColumnarTrajectory collapsed;
+    //the original fixes of collapsed entry k are [startIndices[k], startIndices[k+1])
+    private final int[] startIndices;
+    private final long[] endEpochMillis;
+
+    /**
+     * Collapses fixes that are within a centimetre of the first fix of their run.
+     * @param traj The trajectory to collapse.
+     */
+    public CollapsedTrajectory(ColumnarTrajectory traj){
+        this(traj, defaultToleranceMeters);
+    }
+
+    /**
+     * @param traj The trajectory to collapse.
+     * @param toleranceMeters Fixes within this distance of the first fix of their run are duplicates
+     *                        (zero only collapses identical fixes).
+     */
+    public CollapsedTrajectory(ColumnarTrajectory traj, double toleranceMeters){
+        if(!(toleranceMeters >= 0)){
+            throw new IllegalArgumentException("Tolerance cannot be negative.");
+        }
+        final int n = traj.size();
+        final double[] xs = traj.getX();
+        final double[] ys = traj.getY();
+        final long[] epochMillis = traj.getEpochMillis();
+
+        //count the runs first so the columns are allocated once
+        int m = 0;
+        for (int i = 0; i < n; ) {
+            i = getRunEnd(traj, i, toleranceMeters);
+            m++;
+        }
+
+        final double[] collapsedX = new double[m];
+        final double[] collapsedY = new double[m];
+        final long[] collapsedEpochMillis = new long[m];
+        this.startIndices = new int[m + 1];
+        this.endEpochMillis = new long[m];
+        int k = 0;
+        for (int i = 0; i < n; k++) {
+            final int endIdx = getRunEnd(traj, i, toleranceMeters);
+            collapsedX[k] = xs[i];
+            collapsedY[k] = ys[i];
+            collapsedEpochMillis[k] = epochMillis[i];
+            startIndices[k] = i;
+            endEpochMillis[k] = epochMillis[endIdx - 1];
+            i = endIdx;
+        }
+        startIndices[m] = n;
+        this.collapsed = new ColumnarTrajectory(collapsedX, collapsedY, collapsedEpochMillis, traj.getProjection());
+    }
+
+    /**
+     * @return The index after the last fix of the run starting at the given fix.
+     */
+    private static int getRunEnd(ColumnarTrajectory traj, int startIdx, double toleranceMeters){
+        int endIdx = startIdx + 1;
+        //note: NaN fixes are never duplicates
+        while(endIdx < traj.size() && traj.getEuclideanDistance(startIdx, endIdx) <= toleranceMeters){
+            endIdx++;
+        }
+        return endIdx;
+    }
+
+    /**
+     * @return The collapsed entries, each at the position and time of the first fix of its run.
+     */
+    public ColumnarTrajectory getCollapsed() {
+        return collapsed;
+    }
+
+    /**
+     * @return How many collapsed entries there are.
+     */
+    public int size(){
+        return collapsed.size();
+    }
+
+    /**
+     * @return How many fixes the original trajectory had.
+     */
+    public int getOriginalSize(){
+        return startIndices[startIndices.length - 1];
+    }
+
+    /**
+     * @param k A collapsed entry (or the number of collapsed entries, which gives the original size).
+     * @return The index of the first original fix of the collapsed entry.
+     */
+    public int getOriginalStartIdx(int k){
+        return startIndices[k];
+    }
+
+    /**
+     * @param k A collapsed entry.
+     * @return How many original fixes the collapsed entry stands for.
+     */
+    public int getWeight(int k){
+        return startIndices[k + 1] - startIndices[k];
+    }
+
+    /**
+     * @param k A collapsed entry.
+     * @return The time of the last original fix of the collapsed entry.
+     */
+    public long getEndEpochMillis(int k){
+        return endEpochMillis[k];
+    }
+
+    /**
+     * @return The fraction of the original fixes that were removed as duplicates.
+     */
+    public double getCollapsedFraction(){
+        final int n = getOriginalSize();
+        return n == 0 ? 0 : (n - size()) / (double) n;
+    }
+
+    /**
+     * @param collapsedStops The stops of the collapsed entries.
+     * @return The stops of the original fixes, each fix has the label of its collapsed entry.
+     */
+    public BitSet expand(BitSet collapsedStops){
+        BitSet stops = new BitSet(getOriginalSize());
+        for (int k = collapsedStops.nextSetBit(0); k >= 0 && k < size(); k = collapsedStops.nextSetBit(k + 1)) {
+            stops.set(startIndices[k], startIndices[k + 1]);
+        }
+        return stops;
+    }
+
+    /**
+     * @param collapsedValues A value for each collapsed entry.
+     * @return A value for each original fix, each fix has the value of its collapsed entry.
+     */
+    public double[] expand(double[] collapsedValues){
+        if(collapsedValues.length != size()){
+            throw new IllegalArgumentException("Data must be same size");
+        }
+        double[] values = new double[getOriginalSize()];
+        for (int k = 0; k < collapsedValues.length; k++) {
+            Arrays.fill(values, startIndices[k], startIndices[k + 1], collapsedValues[k]);
+        }
+        return values;
+    }
+
+}
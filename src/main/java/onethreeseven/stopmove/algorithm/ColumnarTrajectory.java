@@ -0,0 +1,122 @@
+package onethreeseven.stopmove.algorithm;
+
+import onethreeseven.datastructures.model.STPt;
+import onethreeseven.datastructures.model.SpatioCompositeTrajectory;
+import onethreeseven.geo.projection.AbstractGeographicProjection;
+
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * A read-only, structure-of-arrays snapshot of a spatio-temporal trajectory.
+ * The coordinates are projected into cartesian space once and the times are stored as epoch milliseconds,
+ * so the stop/move classifiers can walk primitive arrays instead of a point object per entry.
+ * Build one of these per trajectory and pass it to the classifiers that accept it.
+ * Note: times are kept at millisecond precision.
+ * @author Luke Bermingham
+ */
+public final class ColumnarTrajectory {
+
+    private final double[] x;
+    private final double[] y;
+    private final long[] epochMillis;
+    private final AbstractGeographicProjection projection;
+
+    /**
+     * Takes a snapshot of the given trajectory.
+     * @param traj The trajectory to snapshot, it is not modified or referenced after construction.
+     */
+    public ColumnarTrajectory(SpatioCompositeTrajectory<? extends STPt> traj){
+        final int n = traj.size();
+        this.x = new double[n];
+        this.y = new double[n];
+        this.epochMillis = new long[n];
+        this.projection = traj.getProjection();
+        for (int i = 0; i < n; i++) {
+            double[] xy = traj.getCoords(i, true);
+            x[i] = xy[0];
+            y[i] = xy[1];
+            epochMillis[i] = traj.get(i).getTime().toInstant(ZoneOffset.UTC).toEpochMilli();
+        }
+    }
+
+    /**
+     * Makes a snapshot directly from columns, the arrays are used as-is (not copied).
+     * @param x The cartesian x coordinate of each entry.
+     * @param y The cartesian y coordinate of each entry.
+     * @param epochMillis The time of each entry (epoch milliseconds).
+     * @param projection The projection used to make the cartesian coordinates.
+     */
+    public ColumnarTrajectory(double[] x, double[] y, long[] epochMillis, AbstractGeographicProjection projection){
+        if(x.length != y.length || x.length != epochMillis.length){
+            throw new IllegalArgumentException("All columns must be the same size.");
+        }
+        this.x = x;
+        this.y = y;
+        this.epochMillis = epochMillis;
+        this.projection = projection;
+    }
+
+    public int size(){
+        return x.length;
+    }
+
+    /**
+     * @return The cartesian x coordinates (the backing array, do not modify it).
+     */
+    public double[] getX() {
+        return x;
+    }
+
+    /**
+     * @return The cartesian y coordinates (the backing array, do not modify it).
+     */
+    public double[] getY() {
+        return y;
+    }
+
+    /**
+     * @return The time of each entry as epoch milliseconds (the backing array, do not modify it).
+     */
+    public long[] getEpochMillis() {
+        return epochMillis;
+    }
+
+    public AbstractGeographicProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * @param i Index of the first entry.
+     * @param j Index of the second entry.
+     * @return The cartesian distance between the two entries.
+     */
+    public double getEuclideanDistance(int i, int j){
+        final double dx = x[i] - x[j];
+        final double dy = y[i] - y[j];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * @param i Index of the first entry.
+     * @param j Index of the second entry.
+     * @return The milliseconds from entry i to entry j.
+     */
+    public long getDeltaMillis(int i, int j){
+        return epochMillis[j] - epochMillis[i];
+    }
+
+    /**
+     * @param startIdx The first entry to copy (inclusive).
+     * @param endIdx The last entry to copy (exclusive).
+     * @return A copy of the entries in [startIdx, endIdx).
+     */
+    public ColumnarTrajectory subTrajectory(int startIdx, int endIdx){
+        return new ColumnarTrajectory(
+                Arrays.copyOfRange(x, startIdx, endIdx),
+                Arrays.copyOfRange(y, startIdx, endIdx),
+                Arrays.copyOfRange(epochMillis, startIdx, endIdx),
+                projection);
+    }
+
+}
@@ -11,14 +11,26 @@ import java.util.*;
 public class EstimateStopVariance {
 
     public double estimate(SpatioCompositeTrajectory<? extends STPt> traj){
+        //get displacements
+        double[] displacements = new double[traj.size()-1];
+        for (int i = 1; i < traj.size(); i++) {
+            displacements[i-1] = traj.getEuclideanDistance(i, i-1);
+        }
+        return estimate(displacements);
+    }
 
-        int k = 2;
-
+    public double estimate(ColumnarTrajectory traj){
         //get displacements
         double[] displacements = new double[traj.size()-1];
         for (int i = 1; i < traj.size(); i++) {
             displacements[i-1] = traj.getEuclideanDistance(i, i-1);
         }
+        return estimate(displacements);
+    }
+
+    private double estimate(double[] displacements){
+
+        int k = 2;
 
         //get two clusters
         UnivariateKMeans.Cluster[] clusters = new UnivariateKMeans().run(displacements, k);
@@ -0,0 +1,87 @@
+package onethreeseven.stopmove.algorithm;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Run-length encodes stop/move labels into episodes, i.e. each maximal run of consecutive stops
+ * (or moves) becomes a single {@link StopMoveEpisode}. The runs are found by jumping between the
+ * set and clear bits of the labels, so only the centroid and mean stop probability touch every entry.
+ * @author Luke Bermingham
+ */
+public class ExtractEpisodes {
+
+    /**
+     * @param labels The stop/move labels of a trajectory.
+     * @return The stop and move episodes in order.
+     */
+    public StopMoveEpisode[] extract(StopMoveLabels labels){
+        double[] stopPrs = null;
+        if(labels.hasStopPrs()){
+            stopPrs = new double[labels.size()];
+            for (int i = 0; i < stopPrs.length; i++) {
+                stopPrs[i] = labels.getStopPr(i);
+            }
+        }
+        return extract(new ColumnarTrajectory(labels.getSource()), labels.getStops(), stopPrs);
+    }
+
+    /**
+     * @param traj The trajectory that was classified.
+     * @param stops The indices of the entries that are stops, all other entries are moves.
+     * @return The stop and move episodes in order.
+     */
+    public StopMoveEpisode[] extract(ColumnarTrajectory traj, BitSet stops){
+        return extract(traj, stops, null);
+    }
+
+    /**
+     * @param traj The trajectory that was classified.
+     * @param stops The indices of the entries that are stops, all other entries are moves.
+     * @param stopPrs The stop probability of each entry, or null if there are none.
+     * @return The stop and move episodes in order.
+     */
+    public StopMoveEpisode[] extract(ColumnarTrajectory traj, BitSet stops, double[] stopPrs){
+        if(stopPrs != null && stopPrs.length != traj.size()){
+            throw new IllegalArgumentException("Data must be same size");
+        }
+        final int n = traj.size();
+        final ArrayList<StopMoveEpisode> episodes = new ArrayList<>();
+
+        int startIdx = 0;
+        while(startIdx < n){
+            final boolean isStop = stops.get(startIdx);
+            //the episode runs until the label flips
+            int endIdx = (isStop ? stops.nextClearBit(startIdx) : stops.nextSetBit(startIdx)) - 1;
+            if(endIdx < startIdx || endIdx >= n){
+                endIdx = n - 1;
+            }
+            episodes.add(makeEpisode(traj, stopPrs, isStop, startIdx, endIdx));
+            startIdx = endIdx + 1;
+        }
+        return episodes.toArray(new StopMoveEpisode[episodes.size()]);
+    }
+
+    private StopMoveEpisode makeEpisode(ColumnarTrajectory traj, double[] stopPrs,
+                                        boolean isStop, int startIdx, int endIdx){
+        final double[] xs = traj.getX();
+        final double[] ys = traj.getY();
+        final long[] epochMillis = traj.getEpochMillis();
+        final int size = endIdx - startIdx + 1;
+
+        double sumX = 0;
+        double sumY = 0;
+        double sumStopPr = 0;
+        for (int i = startIdx; i <= endIdx; i++) {
+            sumX += xs[i];
+            sumY += ys[i];
+            if(stopPrs != null){
+                sumStopPr += stopPrs[i];
+            }
+        }
+        final double meanStopPr = (stopPrs == null) ? Double.NaN : sumStopPr / size;
+        return new StopMoveEpisode(isStop, startIdx, endIdx, epochMillis[startIdx], epochMillis[endIdx],
+                sumX / size, sumY / size, meanStopPr);
+    }
+
+}
@@ -3,10 +3,11 @@ package onethreeseven.stopmove.algorithm;
 import onethreeseven.datastructures.model.*;
 import onethreeseven.geo.model.LatLonBounds;
 import onethreeseven.geo.projection.AbstractGeographicProjection;
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * This algorithms finds stops in raw spatio-temporal trajectories.
@@ -18,58 +19,224 @@ import java.util.Collection;
  */
 public class GBSMoT {
 
+    //cell id of entries that are not in any cell
+    private static final long noCell = Long.MIN_VALUE;
+
     public STStopTrajectory run(SpatioCompositeTrajectory<? extends STPt> traj,
                                 double regionSize, long minTimeMillis){
-        Collection<LatLonBounds> regions = getRegions(traj, regionSize);
-        return run(traj, regions, minTimeMillis);
+        return runLabels(traj, regionSize, minTimeMillis).toStopTrajectory(false);
+    }
+
+    /**
+     * Same as {@link #run(SpatioCompositeTrajectory, double, long)}, but returns a lightweight view of the labels
+     * rather than copying the trajectory.
+     * @param traj The trajectory to find stops and moves for.
+     * @param regionSize The size of each grid cell (in meters).
+     * @param minTimeMillis The duration (in milliseconds) that that a region must be visited for
+     *                      to be considered a stop.
+     * @return The stop/move label of each entry.
+     */
+    public StopMoveLabels runLabels(SpatioCompositeTrajectory<? extends STPt> traj,
+                                    double regionSize, long minTimeMillis){
+        return new StopMoveLabels(traj, findVisits(traj, regionSize).getStops(minTimeMillis));
     }
 
-    private Collection<LatLonBounds> getRegions(SpatioCompositeTrajectory traj, double regionSize){
+    /**
+     * Finds every visit to a grid cell (and how long it lasted), regardless of the minimum stop time,
+     * using the same grid as {@link #run(SpatioCompositeTrajectory, double, long)}.
+     * Use {@link CandidateStops#getStops(long[])} to label the trajectory for many minimum stop times.
+     * @param traj The trajectory to find visits in.
+     * @param regionSize The size of each grid cell (in meters).
+     * @return The visits, a visit is a stop if it lasted at least the minimum stop time.
+     */
+    public CandidateStops findVisits(SpatioCompositeTrajectory<? extends STPt> traj, double regionSize){
+        final ColumnarTrajectory columns = new ColumnarTrajectory(traj);
         final LatLonBounds studyRegion = traj.calculateGeoBounds();
         final AbstractGeographicProjection projection = traj.getProjection();
         final double[] bottomLeft = projection.geographicToCartesian(studyRegion.getMinLat(), studyRegion.getMinLon());
-        LatLonBounds[][] regions;
-        {
-            double[] topRight = projection.geographicToCartesian(studyRegion.getMaxLat(), studyRegion.getMaxLon());
-            int[] extents = getGridCell(topRight, bottomLeft, regionSize);
-            regions = new LatLonBounds[extents[0]+1][extents[1]+1];
-        }
+        List<LatLonBounds> regions = getRegions(columns, bottomLeft, regionSize);
+        return findVisits(traj, columns, new RegionIndex(regions));
+    }
 
-        //go through traj and make regions
+    /**
+     * Same as {@link #run(SpatioCompositeTrajectory, double, long)}, but runs directly on a columnar snapshot
+     * and only returns the stop labels. The grid is anchored at the smallest projected x/y of the snapshot.
+     * @param traj The trajectory to find stops and moves for.
+     * @param regionSize The size of each grid cell (in meters).
+     * @param minTimeMillis The duration (in milliseconds) that that a region must be visited for
+     *                      to be considered a stop.
+     * @return The indices of the entries that are stops, all other entries are moves.
+     */
+    public BitSet run(ColumnarTrajectory traj, double regionSize, long minTimeMillis){
+        return findVisits(traj, regionSize).getStops(minTimeMillis);
+    }
+
+    /**
+     * Runs {@link #run(ColumnarTrajectory, double, long)} for many minimum stop times at once.
+     * The region visits do not depend on the minimum stop time so they are only found once.
+     * @param traj The trajectory to find stops and moves for.
+     * @param regionSize The size of each grid cell (in meters).
+     * @param minTimesMillis The minimum stop durations (in milliseconds) to try.
+     * @return The stops for each minimum stop duration (in the same order).
+     */
+    public BitSet[] runSweep(ColumnarTrajectory traj, double regionSize, long[] minTimesMillis){
+        return findVisits(traj, regionSize).getStops(minTimesMillis);
+    }
+
+    /**
+     * Finds every visit to a grid cell (and how long it lasted), regardless of the minimum stop time.
+     * The grid is anchored at the smallest projected x/y of the snapshot.
+     * @param traj The trajectory to find visits in.
+     * @param regionSize The size of each grid cell (in meters).
+     * @return The visits, a visit is a stop if it lasted at least the minimum stop time.
+     */
+    public CandidateStops findVisits(ColumnarTrajectory traj, double regionSize){
+        final double[] xs = traj.getX();
+        final double[] ys = traj.getY();
+        final double[] bottomLeft = new double[]{Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
         for (int i = 0; i < traj.size(); i++) {
-            double[] xy = traj.getCoords(i, true);
-            int[] gridCell = getGridCell(xy, bottomLeft, regionSize);
-            LatLonBounds bounds = regions[gridCell[0]][gridCell[1]];
-            if(bounds == null){
-                double minX = bottomLeft[0] + (regionSize * gridCell[0]);
-                double maxX = minX + regionSize;
-                double minY = bottomLeft[1] + (regionSize * gridCell[1]);
-                double maxY = minY + regionSize;
-                double[] minLatLon = projection.cartesianToGeographic(new double[]{minX, minY});
-                double[] maxLatLon = projection.cartesianToGeographic(new double[]{maxX, maxY});
-                bounds = new LatLonBounds(minLatLon[0], maxLatLon[0], minLatLon[1], maxLatLon[1]);
-                regions[gridCell[0]][gridCell[1]] = bounds;
+            bottomLeft[0] = Math.min(bottomLeft[0], xs[i]);
+            bottomLeft[1] = Math.min(bottomLeft[1], ys[i]);
+        }
+        return findVisits(traj, new RegionIndex(getRegions(traj, bottomLeft, regionSize)));
+    }
+
+    /**
+     * Same as {@link #run(SpatioCompositeTrajectory, double, long)}, but done wholly in Euclidean space:
+     * each entry is given the integer id of the grid cell its projected x/y falls in, and a visit is just
+     * consecutive entries with the same cell id. No regions are made and nothing is projected back to
+     * geographic coordinates. Entries exactly on a cell edge belong to the cell above/right of the edge,
+     * so labels can differ slightly from the geographic version.
+     * @param traj The trajectory to find stops and moves for.
+     * @param regionSize The size of each grid cell (in meters).
+     * @param minTimeMillis The duration (in milliseconds) that that a region must be visited for
+     *                      to be considered a stop.
+     * @return The stop/move label of each entry.
+     */
+    public StopMoveLabels runCartesianLabels(SpatioCompositeTrajectory<? extends STPt> traj,
+                                             double regionSize, long minTimeMillis){
+        return new StopMoveLabels(traj, runCartesian(new ColumnarTrajectory(traj), regionSize, minTimeMillis));
+    }
+
+    /**
+     * See {@link #runCartesianLabels(SpatioCompositeTrajectory, double, long)}.
+     * The grid is anchored at the smallest projected x/y of the snapshot.
+     * @param traj The trajectory to find stops and moves for.
+     * @param regionSize The size of each grid cell (in meters).
+     * @param minTimeMillis The duration (in milliseconds) that that a region must be visited for
+     *                      to be considered a stop.
+     * @return The indices of the entries that are stops, all other entries are moves.
+     */
+    public BitSet runCartesian(ColumnarTrajectory traj, double regionSize, long minTimeMillis){
+        if(!(regionSize > 0)){
+            throw new IllegalArgumentException("Region size must be greater than zero.");
+        }
+        final int n = traj.size();
+        final double[] xs = traj.getX();
+        final double[] ys = traj.getY();
+        final long[] epochMillis = traj.getEpochMillis();
+
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+        }
+
+        BitSet stops = new BitSet(n);
+        long currentCell = noCell;
+        int enterIdx = -1;
+
+        for (int i = 0; i <= n; i++) {
+            long entryCell = (i < n) ? getCellId(xs[i], ys[i], minX, minY, regionSize) : noCell;
+
+            //we have one or more points in the same cell
+            if(entryCell != noCell && entryCell == currentCell){
+                continue;
+            }
+
+            //we have the end of potential cell visit
+            if(currentCell != noCell){
+                int exitIdx = i - 1;
+                long deltaMillis = epochMillis[exitIdx] - epochMillis[enterIdx];
+                if(deltaMillis >= minTimeMillis){
+                    stops.set(enterIdx, exitIdx + 1);
+                }
             }
+
+            currentCell = entryCell;
+            enterIdx = i;
+        }
+        return stops;
+    }
+
+    /**
+     * @return The packed grid cell of the point, or {@link #noCell} if the point is not finite.
+     */
+    private static long getCellId(double x, double y, double minX, double minY, double regionSize){
+        if(!Double.isFinite(x) || !Double.isFinite(y)){
+            return noCell;
         }
+        long cellX = (long) Math.floor((x - minX) / regionSize);
+        long cellY = (long) Math.floor((y - minY) / regionSize);
+        return (cellX << 32) | (cellY & 0xffffffffL);
+    }
 
-        //go through each region
-        ArrayList<LatLonBounds> regionList = new ArrayList<>();
-        for (LatLonBounds[] regionArr : regions) {
-            for (LatLonBounds region : regionArr) {
-                if(region != null){
-                    regionList.add(region);
+    /**
+     * Makes a region for each grid cell the trajectory visits.
+     * @param traj The trajectory.
+     * @param bottomLeft The projected corner the grid is anchored at.
+     * @param regionSize The size of each grid cell (in meters).
+     * @return The regions, ordered by x then y cell (the same order as reading a dense grid column by column).
+     */
+    List<LatLonBounds> getRegions(ColumnarTrajectory traj, double[] bottomLeft, double regionSize){
+        final AbstractGeographicProjection projection = traj.getProjection();
+
+        //go through traj and find the visited grid cells, only these get a region
+        //(a dense grid over the whole bounding box can be billions of cells for a long trip)
+        final LongIntHashMap visitedCells = new LongIntHashMap(16);
+        long[] cells = new long[16];
+        int nCells = 0;
+        final double[] xs = traj.getX();
+        final double[] ys = traj.getY();
+        for (int i = 0; i < traj.size(); i++) {
+            long cell = getGridCell(xs[i], ys[i], bottomLeft, regionSize);
+            if(visitedCells.putIfAbsent(cell, nCells) == -1){
+                if(nCells == cells.length){
+                    cells = Arrays.copyOf(cells, nCells * 2);
                 }
+                cells[nCells++] = cell;
             }
         }
+        //order the regions by x then y cell
+        Arrays.sort(cells, 0, nCells);
+
+        //make a region for each visited cell
+        ArrayList<LatLonBounds> regionList = new ArrayList<>(nCells);
+        final double[] xy = new double[2];
+        for (int i = 0; i < nCells; i++) {
+            int cellX = (int) (cells[i] >>> 32);
+            int cellY = (int) cells[i];
+            double minX = bottomLeft[0] + (regionSize * cellX);
+            double minY = bottomLeft[1] + (regionSize * cellY);
+            xy[0] = minX;
+            xy[1] = minY;
+            double[] minLatLon = projection.cartesianToGeographic(xy);
+            xy[0] = minX + regionSize;
+            xy[1] = minY + regionSize;
+            double[] maxLatLon = projection.cartesianToGeographic(xy);
+            regionList.add(new LatLonBounds(minLatLon[0], maxLatLon[0], minLatLon[1], maxLatLon[1]));
+        }
         return regionList;
     }
 
-    private int[] getGridCell(double[] xy, double[] bottomLeft, double regionSize){
-        double deltaX = Math.abs(xy[0]-bottomLeft[0]);
-        double deltaY = Math.abs(xy[1]-bottomLeft[1]);
-        int x = (int) Math.floor(deltaX/regionSize);
-        int y = (int) Math.floor(deltaY/regionSize);
-        return new int[]{x,y};
+    /**
+     * @return The grid cell of the point, packed as its x cell (high bits) then its y cell (low bits).
+     */
+    private static long getGridCell(double x, double y, double[] bottomLeft, double regionSize){
+        int cellX = (int) Math.floor(Math.abs(x - bottomLeft[0]) / regionSize);
+        int cellY = (int) Math.floor(Math.abs(y - bottomLeft[1]) / regionSize);
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
     }
 
     /**
@@ -83,72 +250,143 @@ public class GBSMoT {
      */
     public STStopTrajectory run(SpatioCompositeTrajectory<? extends STPt> traj,
                                 Collection<LatLonBounds> regions, long minTimeMillis){
+        return runLabels(traj, regions, minTimeMillis).toStopTrajectory(false);
+    }
 
-        STStopTrajectory output = new STStopTrajectory(false, traj.getProjection());
+    /**
+     * Same as {@link #run(SpatioCompositeTrajectory, Collection, long)}, but returns a lightweight view of the labels
+     * rather than copying the trajectory.
+     * @param traj The trajectory to find stops and move for.
+     * @param regions The regions that we are interested in finding stops in.
+     * @param minTimeMillis The duration (in milliseconds) that that a region must be visited for
+     *                      to be considered a stop.
+     * @return The stop/move label of each entry.
+     */
+    public StopMoveLabels runLabels(SpatioCompositeTrajectory<? extends STPt> traj,
+                                    Collection<LatLonBounds> regions, long minTimeMillis){
+        return runLabels(traj, new RegionIndex(regions), minTimeMillis);
+    }
 
-        LatLonBounds currentRegion = null;
-        int enterIdx = -1;
-        int exitIdx = -1;
+    /**
+     * Same as {@link #run(SpatioCompositeTrajectory, Collection, long)}, but uses a region index that has already
+     * been built, so the same regions can be used for many trajectories (from many threads) without re-indexing them.
+     * @param traj The trajectory to find stops and move for.
+     * @param regionIndex The regions that we are interested in finding stops in.
+     * @param minTimeMillis The duration (in milliseconds) that that a region must be visited for
+     *                      to be considered a stop.
+     * @return A spatio-temporal trajectory labelled with stop and move annotations.
+     */
+    public STStopTrajectory run(SpatioCompositeTrajectory<? extends STPt> traj,
+                                RegionIndex regionIndex, long minTimeMillis){
+        return runLabels(traj, regionIndex, minTimeMillis).toStopTrajectory(false);
+    }
 
-        for (int i = 0; i < traj.size(); i++) {
+    /**
+     * Same as {@link #run(SpatioCompositeTrajectory, RegionIndex, long)}, but returns a lightweight view of the labels
+     * rather than copying the trajectory.
+     * @param traj The trajectory to find stops and move for.
+     * @param regionIndex The regions that we are interested in finding stops in.
+     * @param minTimeMillis The duration (in milliseconds) that that a region must be visited for
+     *                      to be considered a stop.
+     * @return The stop/move label of each entry.
+     */
+    public StopMoveLabels runLabels(SpatioCompositeTrajectory<? extends STPt> traj,
+                                    RegionIndex regionIndex, long minTimeMillis){
+        BitSet stops = findVisits(traj, new ColumnarTrajectory(traj), regionIndex).getStops(minTimeMillis);
+        return new StopMoveLabels(traj, stops);
+    }
+
+    /**
+     * Same as {@link #run(SpatioCompositeTrajectory, Collection, long)}, but runs directly on a columnar snapshot
+     * and only returns the stop labels. Each entry is projected back to geographic coordinates to test it against
+     * the regions.
+     * @param traj The trajectory to find stops and move for.
+     * @param regions The regions that we are interested in finding stops in.
+     * @param minTimeMillis The duration (in milliseconds) that that a region must be visited for
+     *                      to be considered a stop.
+     * @return The indices of the entries that are stops, all other entries are moves.
+     */
+    public BitSet run(ColumnarTrajectory traj, Collection<LatLonBounds> regions, long minTimeMillis){
+        return run(traj, new RegionIndex(regions), minTimeMillis);
+    }
+
+    /**
+     * Same as {@link #run(ColumnarTrajectory, Collection, long)}, but uses a region index that has already been built.
+     * @param traj The trajectory to find stops and move for.
+     * @param regionIndex The regions that we are interested in finding stops in.
+     * @param minTimeMillis The duration (in milliseconds) that that a region must be visited for
+     *                      to be considered a stop.
+     * @return The indices of the entries that are stops, all other entries are moves.
+     */
+    public BitSet run(ColumnarTrajectory traj, RegionIndex regionIndex, long minTimeMillis){
+        return findVisits(traj, regionIndex).getStops(minTimeMillis);
+    }
+
+    /**
+     * Finds every visit to one of the regions (and how long it lasted), regardless of the minimum stop time.
+     * @param traj The trajectory to find visits in.
+     * @param regionIndex The regions that we are interested in finding stops in.
+     * @return The visits, a visit is a stop if it lasted at least the minimum stop time.
+     */
+    public CandidateStops findVisits(ColumnarTrajectory traj, RegionIndex regionIndex){
+        final AbstractGeographicProjection projection = traj.getProjection();
+        final double[] xs = traj.getX();
+        final double[] ys = traj.getY();
+        int[] regionIds = new int[traj.size()];
+        final double[] xy = new double[2];
+        for (int i = 0; i < regionIds.length; i++) {
+            xy[0] = xs[i];
+            xy[1] = ys[i];
+            double[] latlon = projection.cartesianToGeographic(xy);
+            regionIds[i] = regionIndex.getEnvelopingRegion(latlon[0], latlon[1]);
+        }
+        return findVisits(regionIds, regionIndex.getRegions(), traj.getEpochMillis());
+    }
+
+    private CandidateStops findVisits(SpatioCompositeTrajectory<? extends STPt> traj, ColumnarTrajectory columns,
+                                      RegionIndex regionIndex){
+        int[] regionIds = new int[traj.size()];
+        for (int i = 0; i < regionIds.length; i++) {
             double[] latlon = traj.getCoords(i, false);
-            double lat = latlon[0];
-            double lon = latlon[1];
+            regionIds[i] = regionIndex.getEnvelopingRegion(latlon[0], latlon[1]);
+        }
+        return findVisits(regionIds, regionIndex.getRegions(), columns.getEpochMillis());
+    }
 
-            boolean endRegionVisit = true;
-            LatLonBounds entryRegion = getEnvelopingRegion(regions, lat, lon);
+    /**
+     * Finds each visit (consecutive entries in the same region) and how long it lasted.
+     * Entries that are not in any region are moves, and they end the current visit.
+     * @param regionIds The index of the region each entry is in, or -1 if it is in no region.
+     * @param regions The regions.
+     * @param epochMillis The time of each entry.
+     * @return The visits.
+     */
+    private CandidateStops findVisits(int[] regionIds, List<LatLonBounds> regions, long[] epochMillis){
+        final int n = regionIds.length;
+        CandidateStops.Builder visits = new CandidateStops.Builder();
 
-            if(entryRegion == null){
-                //if this happens probably need to do region calculation wholly in Euclidean space
-                output.addGeographic(traj.getCoords(i, false), new TimeAndStop(traj.get(i).getTime(), false));
-                continue;
-            }
+        int currentRegion = -1;
+        int enterIdx = -1;
 
+        for (int i = 0; i <= n; i++) {
+            int entryRegion = (i < n) ? regionIds[i] : -1;
 
             //we have one or more points in the same region
-            if(currentRegion != null && currentRegion.contains(entryRegion)){
-                exitIdx = i;
-                endRegionVisit = (i == traj.size()-1);
-            }
-            //we have a new region for the first time
-            else if(currentRegion == null){
-                enterIdx = i;
-                exitIdx = i;
-                currentRegion = entryRegion;
-                endRegionVisit = (i == traj.size()-1);
+            if(currentRegion != -1 && entryRegion != -1 &&
+                    (entryRegion == currentRegion || regions.get(currentRegion).contains(regions.get(entryRegion)))){
+                continue;
             }
-            //we have the end of potential region visit, add the entries to the trajectory
-            if(endRegionVisit){
-                LocalDateTime enterTime = traj.get(enterIdx).getTime();
-                LocalDateTime exitTime = traj.get(enterIdx).getTime();
-                long deltaMillis = ChronoUnit.MILLIS.between(enterTime, exitTime);
-                //this is the line that indicates whether these visiting entries were stopped or not
-                boolean wasStopped = deltaMillis >= minTimeMillis;
-                for (int j = enterIdx; j <= exitIdx; j++) {
-                    LocalDateTime curTime = traj.get(j).getTime();
-                    output.addGeographic(traj.getCoords(j, false), new TimeAndStop(curTime, wasStopped));
-                }
-
-                //re-do the current index using its own region
-                if(!currentRegion.contains(entryRegion)){
-                    i--;
-                }
 
-                currentRegion = null;
-                enterIdx = -1;
-                exitIdx = -1;
+            //we have the end of potential region visit
+            if(currentRegion != -1){
+                int exitIdx = i - 1;
+                visits.add(enterIdx, exitIdx, epochMillis[exitIdx] - epochMillis[enterIdx]);
             }
-        }
-        return output;
-    }
 
-    private LatLonBounds getEnvelopingRegion(Collection<LatLonBounds> regions, double lat, double lon){
-        for (LatLonBounds region : regions) {
-            if(region.contains(lat, lon)){
-                return region;
-            }
+            currentRegion = entryRegion;
+            enterIdx = i;
         }
-        return null;
+        return visits.build(n);
     }
 
 }
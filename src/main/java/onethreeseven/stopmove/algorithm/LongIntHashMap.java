@@ -0,0 +1,108 @@
+package onethreeseven.stopmove.algorithm;
+
+import java.util.Arrays;
+
+/**
+ * A minimal open-addressing (linear probing) hash map from primitive long keys to non-negative int values.
+ * Used to key grid cells by their packed cell coordinates without boxing.
+ * @author Luke Bermingham
+ */
+final class LongIntHashMap {
+
+    private static final int EMPTY = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+
+    LongIntHashMap(int expectedSize){
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        Arrays.fill(values, EMPTY);
+    }
+
+    /**
+     * @param key The key.
+     * @return The value for the key, or -1 if the key is not in the map.
+     */
+    int get(long key){
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while(values[slot] != EMPTY){
+            if(keys[slot] == key){
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Puts the value only if the key is not already in the map.
+     * @param key The key.
+     * @param value The value (must not be negative).
+     * @return The existing value for the key, or -1 if the value was put.
+     */
+    int putIfAbsent(long key, int value){
+        if(value < 0){
+            throw new IllegalArgumentException("Values cannot be negative.");
+        }
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while(values[slot] != EMPTY){
+            if(keys[slot] == key){
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        //keep the load factor at or below one half
+        if(size * 2 > keys.length){
+            rehash(keys.length * 2);
+        }
+        return EMPTY;
+    }
+
+    int size(){
+        return size;
+    }
+
+    /**
+     * @return The approximate number of bytes used by the table.
+     */
+    long getMemoryBytes(){
+        return keys.length * (long) (Long.BYTES + Integer.BYTES);
+    }
+
+    private void rehash(int capacity){
+        final long[] oldKeys = keys;
+        final int[] oldValues = values;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        Arrays.fill(values, EMPTY);
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if(oldValues[i] == EMPTY){continue;}
+            int slot = hash(oldKeys[i]) & mask;
+            while(values[slot] != EMPTY){
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private static int hash(long key){
+        //murmur3 finaliser, cell ids are very regular so they need mixing
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+}
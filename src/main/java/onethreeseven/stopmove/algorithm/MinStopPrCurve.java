@@ -0,0 +1,160 @@
+package onethreeseven.stopmove.algorithm;
+
+import onethreeseven.datastructures.model.STStopTrajectory;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Classification stats for any minimum stop probability threshold, without building a stop/move trajectory
+ * for each threshold. The stop probabilities are sorted once (split by their ground truth label), after which
+ * the confusion counts for a threshold are found with two binary searches.
+ * As in {@link POSMIT#toStopTrajectory}, an entry is a stop if its stop probability is
+ * greater than or equal to the threshold.
+ * @author Luke Bermingham
+ */
+public class MinStopPrCurve {
+
+    //sorted stop probabilities of the entries that are truly stops/moves (NaN probabilities are left out)
+    private final double[] truthStopPrs;
+    private final double[] truthMovePrs;
+    //entries with a NaN stop probability are never classified as stops
+    private final int nNaNStops;
+    private final int nNaNMoves;
+
+    /**
+     * @param stopPrs The calculated stop probability of each entry.
+     * @param truth The ground truth stop/move trajectory, it must be the same size as the stop probabilities.
+     */
+    public MinStopPrCurve(double[] stopPrs, STStopTrajectory truth){
+        this(stopPrs, toBitSet(truth, stopPrs.length));
+    }
+
+    /**
+     * @param stopPrs The calculated stop probability of each entry.
+     * @param truthStops The indices of the entries that are truly stops.
+     */
+    public MinStopPrCurve(double[] stopPrs, BitSet truthStops){
+        int nTruthStops = 0;
+        int nTruthMoves = 0;
+        int nanStops = 0;
+        int nanMoves = 0;
+        for (int i = 0; i < stopPrs.length; i++) {
+            boolean isNaN = Double.isNaN(stopPrs[i]);
+            if(truthStops.get(i)){
+                if(isNaN){nanStops++;}else{nTruthStops++;}
+            }else{
+                if(isNaN){nanMoves++;}else{nTruthMoves++;}
+            }
+        }
+
+        this.truthStopPrs = new double[nTruthStops];
+        this.truthMovePrs = new double[nTruthMoves];
+        this.nNaNStops = nanStops;
+        this.nNaNMoves = nanMoves;
+
+        int stopIdx = 0;
+        int moveIdx = 0;
+        for (int i = 0; i < stopPrs.length; i++) {
+            if(Double.isNaN(stopPrs[i])){continue;}
+            if(truthStops.get(i)){
+                truthStopPrs[stopIdx++] = stopPrs[i];
+            }else{
+                truthMovePrs[moveIdx++] = stopPrs[i];
+            }
+        }
+        Arrays.sort(truthStopPrs);
+        Arrays.sort(truthMovePrs);
+    }
+
+    private static BitSet toBitSet(STStopTrajectory truth, int nStopPrs){
+        //check before doing any work
+        if(truth.size() != nStopPrs){
+            throw new IllegalArgumentException("Data must be same size");
+        }
+        BitSet truthStops = new BitSet(truth.size());
+        for (int i = 0; i < truth.size(); i++) {
+            if(truth.get(i).isStopped()){
+                truthStops.set(i);
+            }
+        }
+        return truthStops;
+    }
+
+    /**
+     * @param minStopPr The minimum stop probability for an entry to be classified as a stop
+     *                  (nothing is at least NaN, so a NaN threshold classifies every entry as a move).
+     * @return The stats of classifying the entries with this threshold.
+     */
+    public StopClassificationStats getStats(double minStopPr){
+        int tp = countAtLeast(truthStopPrs, minStopPr);
+        int fp = countAtLeast(truthMovePrs, minStopPr);
+        int fn = truthStopPrs.length - tp + nNaNStops;
+        int tn = truthMovePrs.length - fp + nNaNMoves;
+        StopClassificationStats stats = new StopClassificationStats();
+        stats.calculateStats(tp, tn, fp, fn);
+        return stats;
+    }
+
+    /**
+     * @param minStopPrs The thresholds to calculate stats for.
+     * @return The stats of each threshold (in the same order).
+     */
+    public StopClassificationStats[] getStats(double[] minStopPrs){
+        StopClassificationStats[] stats = new StopClassificationStats[minStopPrs.length];
+        for (int i = 0; i < minStopPrs.length; i++) {
+            stats[i] = getStats(minStopPrs[i]);
+        }
+        return stats;
+    }
+
+    /**
+     * Every threshold where the classification changes, i.e. each distinct stop probability.
+     * Passing these to {@link #getStats(double[])} gives the full ROC/precision-recall curve.
+     * @return The distinct stop probabilities in ascending order.
+     */
+    public double[] getDistinctThresholds(){
+        double[] thresholds = new double[truthStopPrs.length + truthMovePrs.length];
+        int nThresholds = 0;
+        int i = 0;
+        int j = 0;
+        //merge the two sorted arrays, skipping repeated values
+        while(i < truthStopPrs.length || j < truthMovePrs.length){
+            double value;
+            if(j >= truthMovePrs.length || (i < truthStopPrs.length && truthStopPrs[i] <= truthMovePrs[j])){
+                value = truthStopPrs[i++];
+            }else{
+                value = truthMovePrs[j++];
+            }
+            if(nThresholds == 0 || thresholds[nThresholds - 1] != value){
+                thresholds[nThresholds++] = value;
+            }
+        }
+        return Arrays.copyOf(thresholds, nThresholds);
+    }
+
+    /**
+     * @param sorted Values sorted in ascending order.
+     * @param threshold The threshold.
+     * @return How many values are greater than or equal to the threshold.
+     */
+    private static int countAtLeast(double[] sorted, double threshold){
+        //same as value >= NaN, which is always false
+        if(Double.isNaN(threshold)){
+            return 0;
+        }
+        //find the first index whose value is >= threshold
+        int lo = 0;
+        int hi = sorted.length;
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(sorted[mid] < threshold){
+                lo = mid + 1;
+            }else{
+                hi = mid;
+            }
+        }
+        return sorted.length - lo;
+    }
+
+}
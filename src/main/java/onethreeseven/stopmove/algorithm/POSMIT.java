@@ -3,9 +3,10 @@ package onethreeseven.stopmove.algorithm;
 import onethreeseven.common.util.Maths;
 import onethreeseven.datastructures.model.*;
 
-import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Probabilistic stop classifier
@@ -13,10 +14,32 @@ import java.util.Arrays;
  */
 public class POSMIT {
 
-    private static final double cutoff = Maths.gaussian(3, 1, 0, 1);
+    private static final int minParallelChunkSize = 16384;
+    private static final double defaultUncertaintyBand = 0.15;
+
+    private final POSMITKernel kernel;
+
+    /**
+     * Makes POSMIT using the {@link POSMITKernel#GAUSSIAN} kernel.
+     */
+    public POSMIT(){
+        this(POSMITKernel.GAUSSIAN);
+    }
+
+    /**
+     * @param kernel The kernel used to weight neighbours by index offset and by displacement.
+     */
+    public POSMIT(POSMITKernel kernel){
+        this.kernel = kernel;
+    }
+
+    public POSMITKernel getKernel() {
+        return kernel;
+    }
 
     public int estimateSearchRadius(SpatioCompositeTrajectory traj, double stopVariance){
-        ArrayList<Long> chunkSizes = new ArrayList<>();
+        long sumChunkSizes = 0;
+        long nChunks = 0;
 
         for (int i = 0; i < traj.size(); i++) {
             int prevIdx = i;
@@ -34,16 +57,68 @@ public class POSMIT {
             }
 
             if(curChunkSize > 1){
-                chunkSizes.add(curChunkSize);
+                sumChunkSizes += curChunkSize;
+                nChunks++;
+            }
+
+        }
+
+        if(nChunks == 0){
+            return 1;
+        }
+
+        //mean chunk size (integer mean)
+        long searchRadius = sumChunkSizes / nChunks;
+
+        searchRadius = Math.max(1, Math.round(searchRadius * 0.5d));
+        return (int) searchRadius;
+    }
+
+    /**
+     * Same as {@link #estimateSearchRadius(SpatioCompositeTrajectory, double)} but reads from a columnar snapshot.
+     * @param traj The trajectory to analyse.
+     * @param stopVariance The stop variance (in meters).
+     * @return The estimated search radius.
+     */
+    public int estimateSearchRadius(ColumnarTrajectory traj, double stopVariance){
+        return estimateSearchRadius(getConsecutiveDisplacements(traj), stopVariance);
+    }
+
+    /**
+     * The search radius is half the mean size of the chunks of consecutive entries that
+     * each moved no further than the stop variance.
+     * @param displacements Consecutive displacements, see {@link #getConsecutiveDisplacements(ColumnarTrajectory)}.
+     * @param stopVariance The stop variance (in meters).
+     * @return The estimated search radius.
+     */
+    private static int estimateSearchRadius(double[] displacements, double stopVariance){
+        final int n = displacements.length;
+        long sumChunkSizes = 0;
+        long nChunks = 0;
+
+        for (int i = 0; i < n; i++) {
+            long curChunkSize = 1;
+
+            for (++i; i < n; i++) {
+                if(displacements[i] <= stopVariance){
+                    curChunkSize++;
+                }else{
+                    break;
+                }
             }
 
+            if(curChunkSize > 1){
+                sumChunkSizes += curChunkSize;
+                nChunks++;
+            }
         }
 
-        if(chunkSizes.isEmpty()){
+        if(nChunks == 0){
             return 1;
         }
 
-        long searchRadius = Maths.mean(chunkSizes.stream().mapToLong(value -> value).toArray());
+        //mean chunk size (integer mean)
+        long searchRadius = sumChunkSizes / nChunks;
 
         searchRadius = Math.max(1, Math.round(searchRadius * 0.5d));
         return (int) searchRadius;
@@ -82,6 +157,66 @@ public class POSMIT {
         return estimateStopVariance(traj, 20);
     }
 
+    /**
+     * Same as {@link #estimateStopVariance(SpatioCompositeTrajectory, int)} but reads from a columnar snapshot.
+     * @param traj The trajectory to analyse.
+     * @param maxStopVariance The maximum stop variance, displacements above this definitely are not noisy stops
+     *                        - they are moves.
+     * @return The estimated stop variance value. A value of zero is returned if there was no reasonable estimation
+     * that could be made.
+     */
+    public double estimateStopVariance(ColumnarTrajectory traj, int maxStopVariance){
+        return estimateStopVariance(getConsecutiveDisplacements(traj), maxStopVariance);
+    }
+
+    /**
+     * Finds the elbow in the sorted small, non-zero displacements.
+     * Like {@link #estimateStopVariance(SpatioCompositeTrajectory, int)} the displacement into the last entry is not used.
+     * @param displacements Consecutive displacements, see {@link #getConsecutiveDisplacements(ColumnarTrajectory)}.
+     * @param maxStopVariance Displacements at or above this are ignored.
+     * @return The estimated stop variance, or zero if no reasonable estimation could be made.
+     */
+    private static double estimateStopVariance(double[] displacements, int maxStopVariance){
+        final int lastIdx = displacements.length - 1;
+        int nCandidates = 0;
+        for (int i = 1; i < lastIdx; i++) {
+            double value = displacements[i];
+            if(value > 0 && value < maxStopVariance){
+                nCandidates++;
+            }
+        }
+        if(nCandidates <= 1){
+            return 0;
+        }
+        double[] candidates = new double[nCandidates];
+        nCandidates = 0;
+        for (int i = 1; i < lastIdx; i++) {
+            double value = displacements[i];
+            if(value > 0 && value < maxStopVariance){
+                candidates[nCandidates++] = value;
+            }
+        }
+        Arrays.sort(candidates);
+        return new Kneedle().findElbowQuick(candidates);
+    }
+
+    /**
+     * @param traj The trajectory.
+     * @return The displacement from the previous entry to each entry (the first entry has zero displacement).
+     */
+    private static double[] getConsecutiveDisplacements(ColumnarTrajectory traj){
+        final double[] displacements = new double[traj.size()];
+        for (int i = 1; i < displacements.length; i++) {
+            displacements[i] = traj.getEuclideanDistance(i-1, i);
+        }
+        return displacements;
+    }
+
+    public double estimateStopVariance(ColumnarTrajectory traj){
+        //we assume actual stops are happening somewhere between 0 and 20 meters per entry
+        return estimateStopVariance(traj, 20);
+    }
+
     public double[] run(SpatioCompositeTrajectory stTraj, int nSearchRadius){
         return run(stTraj, nSearchRadius, estimateStopVariance(stTraj));
     }
@@ -105,6 +240,401 @@ public class POSMIT {
         return stopProbabilities;
     }
 
+    /**
+     * Run the POSMIT algorithm using a {@link POSMITWindow}, where the index weights and cutoff radius
+     * are computed once and each entry's neighbourhood is then read from primitive coordinate buffers.
+     * The neighbours are summed in the same order as {@link #run(SpatioCompositeTrajectory, int, double)}, so the
+     * only difference is how the displacement between two entries is computed; the stop probabilities
+     * produced are within 1e-9 of that method (in practice they are usually identical).
+     * @param stTraj A spatio-composite trajectory.
+     * @param nSearchRadius Essentially how large of a sliding window to use when calculating probabilities.
+     * @param stopVariance The common speed variance within a stop (in meters per second).
+     * @return A stop probability for each entry in the trajectory.
+     */
+    public double[] runSlidingWindow(SpatioCompositeTrajectory stTraj, int nSearchRadius, double stopVariance){
+        final int n = stTraj.size();
+        final double[] xs = new double[n];
+        final double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            double[] xy = stTraj.getCoords(i, true);
+            xs[i] = xy[0];
+            ys[i] = xy[1];
+        }
+
+        double[] stopProbabilities = new double[n];
+        new POSMITWindow(nSearchRadius, kernel).run(xs, ys, 0, n, stopVariance, stopProbabilities);
+        return stopProbabilities;
+    }
+
+    public double[] run(ColumnarTrajectory traj, int nSearchRadius){
+        return run(traj, nSearchRadius, estimateStopVariance(traj));
+    }
+
+    /**
+     * Run the POSMIT algorithm directly on a columnar snapshot, using a {@link POSMITWindow}.
+     * @param traj A columnar snapshot of a trajectory.
+     * @param nSearchRadius Essentially how large of a sliding window to use when calculating probabilities.
+     * @param stopVariance The common speed variance within a stop (in meters per second).
+     * @return A stop probability for each entry in the trajectory.
+     */
+    public double[] run(ColumnarTrajectory traj, int nSearchRadius, double stopVariance){
+        double[] stopProbabilities = new double[traj.size()];
+        new POSMITWindow(nSearchRadius, kernel).run(traj.getX(), traj.getY(), 0, traj.size(), stopVariance, stopProbabilities);
+        return stopProbabilities;
+    }
+
+    /**
+     * Labels each entry as a stop or a move without calculating its exact stop probability, for when the minimum
+     * stop probability is already known. Each entry stops visiting its neighbours once they can no longer move its
+     * stop probability across the threshold (see {@link POSMITWindow#isStopped(double[], double[], int, double, double)}),
+     * which skips most of the window for entries that are clearly stopped or clearly moving.
+     * The labels are identical to thresholding {@link #run(ColumnarTrajectory, int, double)} at the minimum stop probability.
+     * @param traj A columnar snapshot of a trajectory.
+     * @param nSearchRadius Essentially how large of a sliding window to use when calculating probabilities.
+     * @param stopVariance The common speed variance within a stop (in meters per second).
+     * @param minStopPr The minimum probability an entry must have to be classified as a stop.
+     * @return The indices of the entries that are stops, all other entries are moves.
+     */
+    public BitSet runDecision(ColumnarTrajectory traj, int nSearchRadius, double stopVariance, double minStopPr){
+        BitSet stops = new BitSet(traj.size());
+        new POSMITWindow(nSearchRadius, kernel).classify(traj.getX(), traj.getY(), 0, traj.size(),
+                stopVariance, minStopPr, stops);
+        return stops;
+    }
+
+    /**
+     * Runs {@link #runAdaptive(ColumnarTrajectory, int, double, double, int, double, int)} with a coarse search radius
+     * of a quarter of the search radius, an uncertainty band of 0.15 and a boundary margin of the search radius.
+     * @param traj A columnar snapshot of a trajectory.
+     * @param nSearchRadius Essentially how large of a sliding window to use when calculating probabilities.
+     * @param stopVariance The common speed variance within a stop (in meters per second).
+     * @param minStopPr The minimum probability an entry must have to be classified as a stop.
+     * @return The stop probabilities, the labels and which entries were refined.
+     */
+    public AdaptiveResult runAdaptive(ColumnarTrajectory traj, int nSearchRadius, double stopVariance, double minStopPr){
+        return runAdaptive(traj, nSearchRadius, stopVariance, minStopPr,
+                Math.max(1, nSearchRadius / 4), defaultUncertaintyBand, nSearchRadius);
+    }
+
+    /**
+     * Coarse-to-fine POSMIT. Every entry first gets a cheap stop probability using a small search radius,
+     * then only the entries whose label is in doubt are recalculated with the full search radius, i.e. those whose
+     * coarse stop probability is within the uncertainty band of the minimum stop probability (or is NaN), and those
+     * within the boundary margin of a change between confident coarse stop and move labels (outside the band).
+     * Refined entries have exactly the same stop probability as {@link #run(ColumnarTrajectory, int, double)},
+     * the rest keep their coarse stop probability.
+     * @param traj A columnar snapshot of a trajectory.
+     * @param nSearchRadius Essentially how large of a sliding window to use when calculating probabilities.
+     * @param stopVariance The common speed variance within a stop (in meters per second).
+     * @param minStopPr The minimum probability an entry must have to be classified as a stop.
+     * @param coarseSearchRadius The search radius of the first pass (should be smaller than the search radius).
+     * @param uncertaintyBand Entries whose coarse stop probability is within this of the minimum stop probability
+     *                        are refined.
+     * @param boundaryMargin How many entries either side of a coarse stop/move boundary are refined.
+     * @return The stop probabilities, the labels and which entries were refined.
+     */
+    public AdaptiveResult runAdaptive(ColumnarTrajectory traj, int nSearchRadius, double stopVariance, double minStopPr,
+                                      int coarseSearchRadius, double uncertaintyBand, int boundaryMargin){
+        if(uncertaintyBand < 0 || boundaryMargin < 0){
+            throw new IllegalArgumentException("Uncertainty band and boundary margin cannot be negative.");
+        }
+        final int n = traj.size();
+        final double[] xs = traj.getX();
+        final double[] ys = traj.getY();
+
+        //coarse pass
+        final double[] stopPrs = new double[n];
+        new POSMITWindow(coarseSearchRadius, kernel).run(xs, ys, 0, n, stopVariance, stopPrs);
+
+        //find the entries in doubt
+        final BitSet refined = new BitSet(n);
+        //the last entry whose coarse label was confident (outside the band)
+        int prevConfidentIdx = -1;
+        boolean prevIsStop = false;
+        for (int i = 0; i < n; i++) {
+            final double stopPr = stopPrs[i];
+            //note: NaN is always in doubt
+            if(!(Math.abs(stopPr - minStopPr) > uncertaintyBand)){
+                refined.set(i);
+                continue;
+            }
+            //a boundary is where confident labels change, entries in doubt between them do not count
+            final boolean isStop = stopPr > minStopPr;
+            if(prevConfidentIdx != -1 && isStop != prevIsStop){
+                refined.set(Math.max(0, prevConfidentIdx - boundaryMargin), Math.min(n, i + boundaryMargin + 1));
+            }
+            prevConfidentIdx = i;
+            prevIsStop = isStop;
+        }
+
+        //fine pass, only on the entries in doubt
+        final POSMITWindow window = new POSMITWindow(nSearchRadius, kernel);
+        for (int i = refined.nextSetBit(0); i >= 0; i = refined.nextSetBit(i + 1)) {
+            stopPrs[i] = window.getStopPr(xs, ys, i, stopVariance);
+        }
+
+        final BitSet stops = new BitSet(n);
+        for (int i = 0; i < n; i++) {
+            if(stopPrs[i] >= minStopPr){
+                stops.set(i);
+            }
+        }
+        return new AdaptiveResult(stopPrs, stops, refined);
+    }
+
+    /**
+     * Run the POSMIT algorithm on a trajectory whose duplicate fixes are collapsed, returning a stop probability
+     * for every original fix. A collapsed entry stands in for each of its fixes, so the neighbours of a fix are
+     * still counted by their original index offset; but every fix of a neighbouring entry has the same displacement,
+     * so each pair of collapsed entries is scored once and weighted by the sum of the index weights of the offsets it covers.
+     * The weight of a range of offsets is the difference of two prefix sums of the index weights, which carries
+     * a rounding error of about the machine epsilon times the whole window's weight (however small the range is), so
+     * when the collapsed fixes are identical the stop probabilities are not bit-for-bit the same as
+     * {@link #run(ColumnarTrajectory, int, double)} on the original trajectory, but are within 1e-9 of them.
+     * @param traj The collapsed trajectory.
+     * @param nSearchRadius Essentially how large of a sliding window to use when calculating probabilities.
+     * @param stopVariance The common speed variance within a stop (in meters per second).
+     * @return A stop probability for each original fix.
+     */
+    public double[] run(CollapsedTrajectory traj, int nSearchRadius, double stopVariance){
+        final POSMITWindow window = new POSMITWindow(nSearchRadius, kernel);
+        final int radius = window.getCutoffRadius();
+        //cumWeights[d] is the sum of the index weights of offsets 1 to d
+        final double[] cumWeights = new double[radius + 1];
+        for (int d = 1; d <= radius; d++) {
+            cumWeights[d] = cumWeights[d - 1] + window.getWeight(d);
+        }
+
+        final ColumnarTrajectory collapsed = traj.getCollapsed();
+        final double[] xs = collapsed.getX();
+        final double[] ys = collapsed.getY();
+        final int m = collapsed.size();
+        final int lastIdx = traj.getOriginalSize() - 1;
+        final double[] stopProbabilities = new double[lastIdx + 1];
+
+        //scores of the entries either side of the current entry, shared by all of its fixes
+        double[] leftScores = new double[16];
+        double[] rightScores = new double[16];
+
+        for (int k = 0; k < m; k++) {
+            final int firstFix = traj.getOriginalStartIdx(k);
+            final int lastFix = traj.getOriginalStartIdx(k + 1) - 1;
+
+            //every entry with a fix inside the window of any of this entry's fixes
+            int nLeft = 0;
+            for (int r = k - 1; r >= 0 && traj.getOriginalStartIdx(r + 1) - 1 >= firstFix - radius; r--) {
+                if(nLeft == leftScores.length){
+                    leftScores = Arrays.copyOf(leftScores, nLeft * 2);
+                }
+                leftScores[nLeft++] = score(xs, ys, k, r, stopVariance);
+            }
+            int nRight = 0;
+            for (int r = k + 1; r < m && traj.getOriginalStartIdx(r) <= lastFix + radius; r++) {
+                if(nRight == rightScores.length){
+                    rightScores = Arrays.copyOf(rightScores, nRight * 2);
+                }
+                rightScores[nRight++] = score(xs, ys, k, r, stopVariance);
+            }
+            final double selfScore = score(xs, ys, k, k, stopVariance);
+
+            for (int i = firstFix; i <= lastFix; i++) {
+                final int maxLeft = Math.min(radius, i);
+                final int maxRight = Math.min(radius, lastIdx - i);
+                double sumWeights = 0;
+
+                //the other fixes of this entry
+                if(i > firstFix){
+                    sumWeights += selfScore * (cumWeights[Math.min(i - firstFix, maxLeft)]);
+                }
+                if(i < lastFix){
+                    sumWeights += selfScore * (cumWeights[Math.min(lastFix - i, maxRight)]);
+                }
+
+                //the fixes of the neighbouring entries, as a range of offsets each
+                for (int j = 0; j < nLeft; j++) {
+                    final int r = k - 1 - j;
+                    final int nearest = i - (traj.getOriginalStartIdx(r + 1) - 1);
+                    if(nearest > maxLeft){
+                        break;
+                    }
+                    final int furthest = Math.min(i - traj.getOriginalStartIdx(r), maxLeft);
+                    sumWeights += leftScores[j] * (cumWeights[furthest] - cumWeights[nearest - 1]);
+                }
+                for (int j = 0; j < nRight; j++) {
+                    final int r = k + 1 + j;
+                    final int nearest = traj.getOriginalStartIdx(r) - i;
+                    if(nearest > maxRight){
+                        break;
+                    }
+                    final int furthest = Math.min(traj.getOriginalStartIdx(r + 1) - 1 - i, maxRight);
+                    sumWeights += rightScores[j] * (cumWeights[furthest] - cumWeights[nearest - 1]);
+                }
+
+                stopProbabilities[i] = sumWeights/(cumWeights[maxLeft] + cumWeights[maxRight]);
+            }
+        }
+        return stopProbabilities;
+    }
+
+    private double score(double[] xs, double[] ys, int a, int b, double stopVariance){
+        final double dx = xs[a] - xs[b];
+        final double dy = ys[a] - ys[b];
+        return score(Math.sqrt(dx * dx + dy * dy), stopVariance);
+    }
+
+    /**
+     * Runs POSMIT with all of its parameters estimated from the trajectory, the same as calling
+     * {@link #estimateStopVariance(ColumnarTrajectory)}, {@link #estimateSearchRadius(ColumnarTrajectory, double)}
+     * and then {@link #run(ColumnarTrajectory, int, double)}, except the consecutive displacements that both
+     * estimates use are only computed once.
+     * @param traj A columnar snapshot of a trajectory.
+     * @return The estimated parameters and the stop probability of each entry.
+     */
+    public AutoResult runAuto(ColumnarTrajectory traj){
+        final double[] displacements = getConsecutiveDisplacements(traj);
+        //we assume actual stops are happening somewhere between 0 and 20 meters per entry
+        final double stopVariance = estimateStopVariance(displacements, 20);
+        final int searchRadius = estimateSearchRadius(displacements, stopVariance);
+        return new AutoResult(stopVariance, searchRadius, run(traj, searchRadius, stopVariance));
+    }
+
+    /**
+     * Run the POSMIT algorithm in parallel on the common fork-join pool.
+     * See {@link #runParallel(ColumnarTrajectory, int, double, ForkJoinPool)}.
+     * @param traj A columnar snapshot of a trajectory.
+     * @param nSearchRadius Essentially how large of a sliding window to use when calculating probabilities.
+     * @param stopVariance The common speed variance within a stop (in meters per second).
+     * @return A stop probability for each entry in the trajectory.
+     */
+    public double[] runParallel(ColumnarTrajectory traj, int nSearchRadius, double stopVariance){
+        return runParallel(traj, nSearchRadius, stopVariance, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Run the POSMIT algorithm in parallel. The trajectory is split into chunks and each chunk is processed
+     * by a fork-join task; a chunk reads a halo of {@link POSMITWindow#getCutoffRadius()} entries either side of
+     * its range, which is every neighbour that can contribute to its entries. Each entry is calculated exactly as
+     * in {@link #run(ColumnarTrajectory, int, double)}, so the output is bit-identical to it.
+     * @param traj A columnar snapshot of a trajectory.
+     * @param nSearchRadius Essentially how large of a sliding window to use when calculating probabilities.
+     * @param stopVariance The common speed variance within a stop (in meters per second).
+     * @param pool The pool to run the chunks on.
+     * @return A stop probability for each entry in the trajectory.
+     */
+    public double[] runParallel(ColumnarTrajectory traj, int nSearchRadius, double stopVariance, ForkJoinPool pool){
+        final POSMITWindow window = new POSMITWindow(nSearchRadius, kernel);
+        final double[] stopProbabilities = new double[traj.size()];
+        //chunks must be large compared to their halo, otherwise the halo reads dominate
+        final int minChunkSize = Math.max(minParallelChunkSize, 8 * window.getCutoffRadius());
+        pool.invoke(new StopPrTask(window, traj.getX(), traj.getY(), stopVariance,
+                0, traj.size(), minChunkSize, stopProbabilities));
+        return stopProbabilities;
+    }
+
+    /**
+     * Runs POSMIT for every combination of search radius and stop variance in one pass.
+     * The displacements from each entry to its neighbours (out to the largest cutoff radius) are computed once,
+     * each displacement is scored once per stop variance, and every search radius then re-weights those shared scores.
+     * Each result is identical to calling {@link #run(ColumnarTrajectory, int, double)} with that combination.
+     * Note: the output holds (searchRadii.length * stopVariances.length * traj.size()) doubles.
+     * @param traj A columnar snapshot of a trajectory.
+     * @param searchRadii The search radii to try.
+     * @param stopVariances The stop variances to try.
+     * @return Stop probabilities indexed as [search radius index][stop variance index][entry index].
+     */
+    public double[][][] runSweep(ColumnarTrajectory traj, int[] searchRadii, double[] stopVariances){
+        final int n = traj.size();
+        final double[] xs = traj.getX();
+        final double[] ys = traj.getY();
+
+        final POSMITWindow[] windows = new POSMITWindow[searchRadii.length];
+        int maxRadius = 0;
+        for (int i = 0; i < searchRadii.length; i++) {
+            windows[i] = new POSMITWindow(searchRadii[i], kernel);
+            maxRadius = Math.max(maxRadius, windows[i].getCutoffRadius());
+        }
+
+        final double[][][] stopPrs = new double[searchRadii.length][stopVariances.length][n];
+        //scores[k][d] is the score of the neighbour d entries left (or right) of the center using stop variance k
+        final double[][] leftScores = new double[stopVariances.length][maxRadius + 1];
+        final double[][] rightScores = new double[stopVariances.length][maxRadius + 1];
+        final double[] leftDists = new double[maxRadius + 1];
+        final double[] rightDists = new double[maxRadius + 1];
+
+        for (int centerIdx = 0; centerIdx < n; centerIdx++) {
+            final double cx = xs[centerIdx];
+            final double cy = ys[centerIdx];
+            final int nLeft = Math.min(maxRadius, centerIdx);
+            final int nRight = Math.min(maxRadius, n - 1 - centerIdx);
+
+            //the shared band of displacements
+            for (int d = 1; d <= nLeft; d++) {
+                final double dx = cx - xs[centerIdx - d];
+                final double dy = cy - ys[centerIdx - d];
+                leftDists[d] = Math.sqrt(dx * dx + dy * dy);
+            }
+            for (int d = 1; d <= nRight; d++) {
+                final double dx = cx - xs[centerIdx + d];
+                final double dy = cy - ys[centerIdx + d];
+                rightDists[d] = Math.sqrt(dx * dx + dy * dy);
+            }
+
+            for (int k = 0; k < stopVariances.length; k++) {
+                for (int d = 1; d <= nLeft; d++) {
+                    leftScores[k][d] = score(leftDists[d], stopVariances[k]);
+                }
+                for (int d = 1; d <= nRight; d++) {
+                    rightScores[k][d] = score(rightDists[d], stopVariances[k]);
+                }
+            }
+
+            for (int j = 0; j < windows.length; j++) {
+                final POSMITWindow window = windows[j];
+                final int radius = window.getCutoffRadius();
+                final boolean isInterior = radius <= nLeft && radius <= nRight;
+
+                //index weights do not depend on the stop variance
+                double sumIndexWeight = 0;
+                if(isInterior){
+                    sumIndexWeight = window.getInteriorWeightSum();
+                }else{
+                    for (int d = 1; d <= radius; d++) {
+                        if(d <= nLeft){
+                            sumIndexWeight += window.getWeight(d);
+                        }
+                        if(d <= nRight){
+                            sumIndexWeight += window.getWeight(d);
+                        }
+                    }
+                }
+
+                for (int k = 0; k < stopVariances.length; k++) {
+                    final double[] left = leftScores[k];
+                    final double[] right = rightScores[k];
+                    double sumWeights = 0;
+                    for (int d = 1; d <= radius; d++) {
+                        final double indexWeight = window.getWeight(d);
+                        if(d <= nLeft){
+                            sumWeights += (indexWeight * left[d]);
+                        }
+                        if(d <= nRight){
+                            sumWeights += (indexWeight * right[d]);
+                        }
+                    }
+                    stopPrs[j][k][centerIdx] = sumWeights/sumIndexWeight;
+                }
+            }
+        }
+        return stopPrs;
+    }
+
+    private double score(double displacementMeters, double stopVariance){
+        if(stopVariance == 0){
+            return 0;
+        }
+        return kernel.weight(displacementMeters/stopVariance);
+    }
+
     /**
      * Converts a spatio-temporal trajectory into spatio-temporal stop/move annotated trajectory using the
      * given stop probabilities and a minimum stop probability confidence.
@@ -116,14 +646,26 @@ public class POSMIT {
      */
     public STStopTrajectory toStopTrajectory(SpatioCompositeTrajectory<? extends STPt> traj,
                                              double[] stopProbabilities, double minStopProbability){
-        STStopTrajectory stopTraj = new STStopTrajectory(false, traj.getProjection());
+        return toLabels(traj, stopProbabilities, minStopProbability).toStopTrajectory(false);
+    }
 
+    /**
+     * Same as {@link #toStopTrajectory(SpatioCompositeTrajectory, double[], double)}, but returns a lightweight
+     * view of the labels (which also keeps the stop probabilities) rather than copying the trajectory.
+     * @param traj The trajectory the stop probabilities were calculated for.
+     * @param stopProbabilities The stop probability of each entry.
+     * @param minStopProbability The minimum probability an entry must have to be classified as a stop.
+     * @return The stop/move label of each entry.
+     */
+    public StopMoveLabels toLabels(SpatioCompositeTrajectory<? extends STPt> traj,
+                                   double[] stopProbabilities, double minStopProbability){
+        BitSet stops = new BitSet(traj.size());
         for (int i = 0; i < traj.size(); i++) {
-            boolean isStopped = stopProbabilities[i] >= minStopProbability;
-            LocalDateTime time = traj.get(i).getTime();
-            stopTraj.addGeographic(traj.getCoords(i, false), new TimeAndStop(time, isStopped));
+            if(stopProbabilities[i] >= minStopProbability){
+                stops.set(i);
+            }
         }
-        return stopTraj;
+        return new StopMoveLabels(traj, stops, stopProbabilities);
     }
 
     private double getStopPr(SpatioCompositeTrajectory stTraj, int centerIdx,
@@ -152,8 +694,8 @@ public class POSMIT {
                 }
                 //do the actual scoring
                 double indexScore = Math.abs(idx - centerIdx)/(double)nSearchRadius;
-                double indexWeight = kernel(indexScore);
-                if(indexWeight < cutoff){
+                double indexWeight = kernel.weight(indexScore);
+                if(indexWeight < kernel.getCutoff()){
                     increments[i] = 0;
                     continue;
                 }
@@ -173,11 +715,121 @@ public class POSMIT {
         if(stopVariance == 0){
             return 0;
         }
-        return kernel(displacementMeters/stopVariance);
+        return kernel.weight(displacementMeters/stopVariance);
+    }
+
+    /**
+     * Calculates the stop probabilities of a range of entries, splitting the range in half until
+     * it is small enough to calculate directly.
+     */
+    private static class StopPrTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final POSMITWindow window;
+        private final double[] xs;
+        private final double[] ys;
+        private final double stopVariance;
+        private final int startIdx;
+        private final int endIdx;
+        private final int minChunkSize;
+        private final double[] out;
+
+        StopPrTask(POSMITWindow window, double[] xs, double[] ys, double stopVariance,
+                   int startIdx, int endIdx, int minChunkSize, double[] out){
+            this.window = window;
+            this.xs = xs;
+            this.ys = ys;
+            this.stopVariance = stopVariance;
+            this.startIdx = startIdx;
+            this.endIdx = endIdx;
+            this.minChunkSize = minChunkSize;
+            this.out = out;
+        }
+
+        @Override
+        protected void compute() {
+            if(endIdx - startIdx <= minChunkSize){
+                window.run(xs, ys, startIdx, endIdx, stopVariance, out);
+                return;
+            }
+            int midIdx = (startIdx + endIdx) >>> 1;
+            invokeAll(
+                    new StopPrTask(window, xs, ys, stopVariance, startIdx, midIdx, minChunkSize, out),
+                    new StopPrTask(window, xs, ys, stopVariance, midIdx, endIdx, minChunkSize, out));
+        }
+    }
+
+    /**
+     * The output of {@link #runAdaptive(ColumnarTrajectory, int, double, double, int, double, int)}.
+     */
+    public static class AdaptiveResult {
+
+        private final double[] stopProbabilities;
+        private final BitSet stops;
+        private final BitSet refined;
+
+        AdaptiveResult(double[] stopProbabilities, BitSet stops, BitSet refined){
+            this.stopProbabilities = stopProbabilities;
+            this.stops = stops;
+            this.refined = refined;
+        }
+
+        /**
+         * @return The stop probability of each entry, exact for refined entries and coarse for the rest.
+         */
+        public double[] getStopProbabilities() {
+            return stopProbabilities;
+        }
+
+        /**
+         * @return The indices of the entries that are stops, all other entries are moves.
+         */
+        public BitSet getStops() {
+            return stops;
+        }
+
+        /**
+         * @return The indices of the entries that were recalculated with the full search radius.
+         */
+        public BitSet getRefined() {
+            return refined;
+        }
+
+        /**
+         * @return The fraction of entries that were recalculated with the full search radius.
+         */
+        public double getRefinedFraction(){
+            return stopProbabilities.length == 0 ? 0 : refined.cardinality() / (double) stopProbabilities.length;
+        }
     }
 
-    private double kernel(double x){
-        return Maths.gaussian(x, 1, 0, 1);
+    /**
+     * The output of {@link #runAuto(ColumnarTrajectory)}.
+     */
+    public static class AutoResult {
+
+        private final double stopVariance;
+        private final int searchRadius;
+        private final double[] stopProbabilities;
+
+        AutoResult(double stopVariance, int searchRadius, double[] stopProbabilities){
+            this.stopVariance = stopVariance;
+            this.searchRadius = searchRadius;
+            this.stopProbabilities = stopProbabilities;
+        }
+
+        public double getStopVariance() {
+            return stopVariance;
+        }
+
+        public int getSearchRadius() {
+            return searchRadius;
+        }
+
+        public double[] getStopProbabilities() {
+            return stopProbabilities;
+        }
     }
 
 }
@@ -0,0 +1,132 @@
+package onethreeseven.stopmove.algorithm;
+
+import onethreeseven.common.util.Maths;
+
+/**
+ * The kernel {@link POSMIT} uses to weight neighbours, both by how many indices away they are
+ * and by how far away they are (relative to the stop variance).
+ * Every kernel peaks at a weight of one when x is zero. The compact kernels are scaled to have the same
+ * standard deviation as the Gaussian (one), so the stop variance means roughly the same thing for all of them,
+ * but their weight is exactly zero past their support, which gives POSMIT a natural window cutoff.
+ * @author Luke Bermingham
+ */
+public enum POSMITKernel {
+
+    /**
+     * The standard Gaussian, exp(-x^2/2), as originally used by POSMIT.
+     * Neighbours weighted less than the Gaussian at x=3 do not contribute.
+     */
+    GAUSSIAN {
+        @Override
+        public double weight(double x) {
+            return Maths.gaussian(x, 1, 0, 1);
+        }
+
+        @Override
+        public double getCutoff() {
+            return gaussianCutoff;
+        }
+    },
+
+    /**
+     * The standard Gaussian read from a lookup table with linear interpolation, which avoids an exp per neighbour.
+     * The table spans x in [0, 8) with a step of 1/512 and is zero beyond that, so each weight is
+     * within 5e-7 of {@link #GAUSSIAN} (interpolation error is at most step^2/8 times the largest |f''|, which is one).
+     * The cutoff is the same as {@link #GAUSSIAN} (x=3 is a table node so the window sizes match too).
+     */
+    TABULATED_GAUSSIAN {
+        @Override
+        public double weight(double x) {
+            return GaussianTable.lookup(x);
+        }
+
+        @Override
+        public double getCutoff() {
+            return gaussianCutoff;
+        }
+    },
+
+    /**
+     * The Epanechnikov kernel, 1 - (x/sqrt(5))^2, which is zero for |x| >= sqrt(5).
+     */
+    EPANECHNIKOV {
+        @Override
+        public double weight(double x) {
+            final double u2 = (x * x) / 5;
+            if(u2 < 1){
+                return 1 - u2;
+            }
+            //NaN stays NaN
+            return Double.isNaN(u2) ? u2 : 0;
+        }
+
+        @Override
+        public double getCutoff() {
+            return Double.MIN_VALUE;
+        }
+    },
+
+    /**
+     * The triweight kernel, (1 - (x/3)^2)^3, which is zero for |x| >= 3 (the same place the Gaussian is cut off).
+     */
+    TRIWEIGHT {
+        @Override
+        public double weight(double x) {
+            final double u2 = (x * x) / 9;
+            if(u2 < 1){
+                final double w = 1 - u2;
+                return w * w * w;
+            }
+            //NaN stays NaN
+            return Double.isNaN(u2) ? u2 : 0;
+        }
+
+        @Override
+        public double getCutoff() {
+            return Double.MIN_VALUE;
+        }
+    };
+
+    private static final double gaussianCutoff = Maths.gaussian(3, 1, 0, 1);
+
+    /**
+     * @param x The index offset divided by the search radius, or the displacement divided by the stop variance.
+     * @return The weight, between zero and one.
+     */
+    public abstract double weight(double x);
+
+    /**
+     * @return Index offsets whose weight falls below this do not contribute to the stop probability.
+     */
+    public abstract double getCutoff();
+
+    /**
+     * Lazily built lookup table for {@link #TABULATED_GAUSSIAN}.
+     */
+    private static final class GaussianTable {
+
+        private static final int stepsPerUnit = 512;
+        private static final double maxX = 8;
+        private static final double[] table = makeTable();
+
+        private static double[] makeTable(){
+            final double[] values = new double[(int) (maxX * stepsPerUnit) + 1];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Maths.gaussian(i / (double) stepsPerUnit, 1, 0, 1);
+            }
+            return values;
+        }
+
+        static double lookup(double x){
+            final double pos = Math.abs(x) * stepsPerUnit;
+            if(pos < table.length - 1){
+                final int i = (int) pos;
+                final double lo = table[i];
+                return lo + (table[i + 1] - lo) * (pos - i);
+            }
+            //NaN stays NaN, past the end of the table the Gaussian is effectively zero
+            return Double.isNaN(pos) ? pos : 0;
+        }
+    }
+
+}
@@ -0,0 +1,324 @@
+package onethreeseven.stopmove.algorithm;
+
+import java.util.BitSet;
+
+/**
+ * The index neighbourhood that {@link POSMIT} uses when calculating the stop probability of an entry.
+ * The index weights only depend on the search radius, so they are computed once here and then shared
+ * by every entry in the trajectory, rather than evaluating the kernel for each neighbour of each entry.
+ * Neighbours are visited in the same order as {@link POSMIT#run(onethreeseven.datastructures.model.SpatioCompositeTrajectory, int, double)}
+ * (nearest first, left before right) so the weighted sums are accumulated identically.
+ * @author Luke Bermingham
+ */
+public final class POSMITWindow {
+
+    private final POSMITKernel kernel;
+    private final int nSearchRadius;
+    //weights[d] is the weight of the neighbour that is d indices away from the center (weights[0] is unused)
+    private final double[] weights;
+    //sum of all index weights when both sides of the window fit inside the trajectory
+    private final double interiorWeightSum;
+
+    /**
+     * Precomputes the index weights for the given search radius, using the {@link POSMITKernel#GAUSSIAN} kernel.
+     * @param nSearchRadius How many entries either side of an entry to search when calculating probabilities.
+     */
+    public POSMITWindow(int nSearchRadius){
+        this(nSearchRadius, POSMITKernel.GAUSSIAN);
+    }
+
+    /**
+     * Precomputes the index weights for the given search radius.
+     * @param nSearchRadius How many entries either side of an entry to search when calculating probabilities.
+     * @param kernel The kernel used to weight neighbours by index offset and by displacement.
+     */
+    public POSMITWindow(int nSearchRadius, POSMITKernel kernel){
+        if(nSearchRadius < 1){
+            throw new IllegalArgumentException("Search radius must be one or greater.");
+        }
+        this.kernel = kernel;
+        this.nSearchRadius = nSearchRadius;
+
+        //find the furthest index offset whose weight does not fall below the cutoff
+        final double cutoff = kernel.getCutoff();
+        int radius = 0;
+        while(kernel.weight((radius + 1)/(double)nSearchRadius) >= cutoff){
+            radius++;
+        }
+
+        this.weights = new double[radius + 1];
+        double sum = 0;
+        for (int d = 1; d <= radius; d++) {
+            weights[d] = kernel.weight(d/(double)nSearchRadius);
+            //left then right, same order as the neighbours are visited
+            sum += weights[d];
+            sum += weights[d];
+        }
+        this.interiorWeightSum = sum;
+    }
+
+    /**
+     * @return The search radius these weights were made for.
+     */
+    public int getSearchRadius() {
+        return nSearchRadius;
+    }
+
+    public POSMITKernel getKernel() {
+        return kernel;
+    }
+
+    /**
+     * @return How many entries either side of the center actually contribute before the weights fall below the cutoff.
+     */
+    public int getCutoffRadius(){
+        return weights.length - 1;
+    }
+
+    /**
+     * @param offset How many indices a neighbour is away from the center (must be between 1 and the cutoff radius).
+     * @return The weight of that neighbour.
+     */
+    public double getWeight(int offset){
+        return weights[offset];
+    }
+
+    /**
+     * @return The sum of all index weights for an entry whose whole window fits inside the trajectory.
+     */
+    double getInteriorWeightSum(){
+        return interiorWeightSum;
+    }
+
+    /**
+     * Calculates the stop probability of every entry in [startIdx, endIdx).
+     * @param xs The cartesian x coordinate of each entry.
+     * @param ys The cartesian y coordinate of each entry.
+     * @param startIdx The first entry to calculate (inclusive).
+     * @param endIdx The last entry to calculate (exclusive).
+     * @param stopVariance The common spatial variance within a stop (in meters).
+     * @param out Where to write the stop probabilities, indexed the same as the coordinates.
+     */
+    public void run(double[] xs, double[] ys, int startIdx, int endIdx, double stopVariance, double[] out){
+        for (int centerIdx = startIdx; centerIdx < endIdx; centerIdx++) {
+            out[centerIdx] = getStopPr(xs, ys, centerIdx, stopVariance);
+        }
+    }
+
+    /**
+     * Calculates the stop probability of a single entry.
+     * @param xs The cartesian x coordinate of each entry.
+     * @param ys The cartesian y coordinate of each entry.
+     * @param centerIdx The entry to calculate the stop probability of.
+     * @param stopVariance The common spatial variance within a stop (in meters).
+     * @return The stop probability.
+     */
+    public double getStopPr(double[] xs, double[] ys, int centerIdx, double stopVariance){
+        final int radius = weights.length - 1;
+        final int lastIdx = xs.length - 1;
+        final double cx = xs[centerIdx];
+        final double cy = ys[centerIdx];
+        final boolean isInterior = centerIdx - radius >= 0 && centerIdx + radius <= lastIdx;
+
+        double sumWeights = 0;
+        double sumIndexWeight = 0;
+
+        for (int d = 1; d <= radius; d++) {
+            final double indexWeight = weights[d];
+            final int leftIdx = centerIdx - d;
+            final int rightIdx = centerIdx + d;
+            if(leftIdx >= 0){
+                sumWeights += (indexWeight * score(cx, cy, xs[leftIdx], ys[leftIdx], stopVariance));
+                if(!isInterior){
+                    sumIndexWeight += indexWeight;
+                }
+            }
+            if(rightIdx <= lastIdx){
+                sumWeights += (indexWeight * score(cx, cy, xs[rightIdx], ys[rightIdx], stopVariance));
+                if(!isInterior){
+                    sumIndexWeight += indexWeight;
+                }
+            }
+        }
+        if(isInterior){
+            sumIndexWeight = interiorWeightSum;
+        }
+        return sumWeights/sumIndexWeight;
+    }
+
+    /**
+     * Labels every entry in [startIdx, endIdx), see {@link #isStopped(double[], double[], int, double, double)}.
+     * @param xs The cartesian x coordinate of each entry.
+     * @param ys The cartesian y coordinate of each entry.
+     * @param startIdx The first entry to label (inclusive).
+     * @param endIdx The last entry to label (exclusive).
+     * @param stopVariance The common spatial variance within a stop (in meters).
+     * @param minStopPr The minimum probability an entry must have to be classified as a stop.
+     * @param stops Where to set the entries that are stops, indexed the same as the coordinates.
+     */
+    public void classify(double[] xs, double[] ys, int startIdx, int endIdx,
+                         double stopVariance, double minStopPr, BitSet stops){
+        final int radius = weights.length - 1;
+        final int lastIdx = xs.length - 1;
+        //nonFiniteCounts[i] is how many of the entries before i have a non-finite coordinate
+        final int firstIdx = Math.max(0, startIdx - radius);
+        final int endWindowIdx = Math.min(lastIdx, endIdx - 1 + radius) + 1;
+        final int[] nonFiniteCounts = new int[Math.max(0, endWindowIdx - firstIdx) + 1];
+        for (int i = firstIdx; i < endWindowIdx; i++) {
+            boolean isFinite = Double.isFinite(xs[i]) && Double.isFinite(ys[i]);
+            nonFiniteCounts[i - firstIdx + 1] = nonFiniteCounts[i - firstIdx] + (isFinite ? 0 : 1);
+        }
+        for (int centerIdx = startIdx; centerIdx < endIdx; centerIdx++) {
+            final int windowStart = Math.max(0, centerIdx - radius) - firstIdx;
+            final int windowEnd = Math.min(lastIdx, centerIdx + radius) + 1 - firstIdx;
+            final boolean isWindowFinite = nonFiniteCounts[windowEnd] == nonFiniteCounts[windowStart];
+            if(isStopped(xs, ys, centerIdx, stopVariance, minStopPr, isWindowFinite)){
+                stops.set(centerIdx);
+            }
+        }
+    }
+
+    /**
+     * Decides whether the stop probability of a single entry ({@link #getStopPr(double[], double[], int, double)})
+     * is at least the minimum stop probability, without necessarily visiting the entry's whole window.
+     * Neighbours are visited nearest first and each one adds at most its index weight to the weighted sum
+     * (the kernel never exceeds one), so the visit stops as soon as the sum already clears the threshold, or could not
+     * clear it even if every remaining neighbour scored one. Otherwise the whole window is summed in the same order as
+     * getStopPr, so the decision is always the same as thresholding the stop probability.
+     * A non-finite coordinate in the window can make the stop probability NaN (a move), so those windows are
+     * always summed in full.
+     * @param xs The cartesian x coordinate of each entry.
+     * @param ys The cartesian y coordinate of each entry.
+     * @param centerIdx The entry to label.
+     * @param stopVariance The common spatial variance within a stop (in meters).
+     * @param minStopPr The minimum probability an entry must have to be classified as a stop.
+     * @return True if the entry is a stop, false if it is a move.
+     */
+    public boolean isStopped(double[] xs, double[] ys, int centerIdx, double stopVariance, double minStopPr){
+        final int radius = weights.length - 1;
+        final int lastIdx = xs.length - 1;
+        boolean isWindowFinite = true;
+        for (int i = Math.max(0, centerIdx - radius); i <= Math.min(lastIdx, centerIdx + radius); i++) {
+            if(!Double.isFinite(xs[i]) || !Double.isFinite(ys[i])){
+                isWindowFinite = false;
+                break;
+            }
+        }
+        return isStopped(xs, ys, centerIdx, stopVariance, minStopPr, isWindowFinite);
+    }
+
+    private boolean isStopped(double[] xs, double[] ys, int centerIdx, double stopVariance, double minStopPr,
+                              boolean isWindowFinite){
+        final int radius = weights.length - 1;
+        final int lastIdx = xs.length - 1;
+        final double cx = xs[centerIdx];
+        final double cy = ys[centerIdx];
+        //otherwise a later score could be NaN, which makes the whole stop probability NaN
+        final boolean canStopEarly = isWindowFinite && Double.isFinite(stopVariance);
+
+        //the divisor does not depend on the scores, sum it up front in the same order as getStopPr
+        double sumIndexWeight = 0;
+        if(centerIdx - radius >= 0 && centerIdx + radius <= lastIdx){
+            sumIndexWeight = interiorWeightSum;
+        }else{
+            for (int d = 1; d <= radius; d++) {
+                if(centerIdx - d >= 0){
+                    sumIndexWeight += weights[d];
+                }
+                if(centerIdx + d <= lastIdx){
+                    sumIndexWeight += weights[d];
+                }
+            }
+        }
+        //covers the rounding of the partial sums, so an entry is never wrongly ruled out
+        final double tolerance = 4 * (2 * radius + 2) * Math.ulp(sumIndexWeight);
+
+        double sumWeights = 0;
+        double visitedIndexWeight = 0;
+
+        for (int d = 1; d <= radius; d++) {
+            final double indexWeight = weights[d];
+            final int leftIdx = centerIdx - d;
+            final int rightIdx = centerIdx + d;
+            if(leftIdx >= 0){
+                sumWeights += (indexWeight * score(cx, cy, xs[leftIdx], ys[leftIdx], stopVariance));
+                visitedIndexWeight += indexWeight;
+            }
+            if(rightIdx <= lastIdx){
+                sumWeights += (indexWeight * score(cx, cy, xs[rightIdx], ys[rightIdx], stopVariance));
+                visitedIndexWeight += indexWeight;
+            }
+            if(!canStopEarly){
+                continue;
+            }
+            //the weighted sum only grows, so the stop probability cannot end up below this
+            if(sumWeights/sumIndexWeight >= minStopPr){
+                return true;
+            }
+            //even if all the remaining neighbours scored one the threshold could not be reached
+            final double remainingIndexWeight = Math.max(0, sumIndexWeight - visitedIndexWeight);
+            if((sumWeights + remainingIndexWeight + tolerance)/sumIndexWeight < minStopPr){
+                return false;
+            }
+        }
+        return sumWeights/sumIndexWeight >= minStopPr;
+    }
+
+    /**
+     * Calculates the stop probability of a single entry whose neighbours are stored in ring buffers.
+     * Entries are addressed by their absolute index, which is stored at (index % capacity).
+     * The neighbours are visited in the same order as {@link #getStopPr(double[], double[], int, double)}.
+     * @param xs Ring buffer of cartesian x coordinates.
+     * @param ys Ring buffer of cartesian y coordinates.
+     * @param centerIdx Absolute index of the entry to calculate the stop probability of.
+     * @param firstIdx Absolute index of the first entry that can be used as a neighbour.
+     * @param lastIdx Absolute index of the last entry that can be used as a neighbour.
+     * @param stopVariance The common spatial variance within a stop (in meters).
+     * @return The stop probability.
+     */
+    double getStopPr(double[] xs, double[] ys, long centerIdx, long firstIdx, long lastIdx, double stopVariance){
+        final int radius = weights.length - 1;
+        final int capacity = xs.length;
+        final int centerPos = (int) (centerIdx % capacity);
+        final double cx = xs[centerPos];
+        final double cy = ys[centerPos];
+        final boolean isInterior = centerIdx - radius >= firstIdx && centerIdx + radius <= lastIdx;
+
+        double sumWeights = 0;
+        double sumIndexWeight = 0;
+
+        for (int d = 1; d <= radius; d++) {
+            final double indexWeight = weights[d];
+            final long leftIdx = centerIdx - d;
+            final long rightIdx = centerIdx + d;
+            if(leftIdx >= firstIdx){
+                final int pos = (int) (leftIdx % capacity);
+                sumWeights += (indexWeight * score(cx, cy, xs[pos], ys[pos], stopVariance));
+                if(!isInterior){
+                    sumIndexWeight += indexWeight;
+                }
+            }
+            if(rightIdx <= lastIdx){
+                final int pos = (int) (rightIdx % capacity);
+                sumWeights += (indexWeight * score(cx, cy, xs[pos], ys[pos], stopVariance));
+                if(!isInterior){
+                    sumIndexWeight += indexWeight;
+                }
+            }
+        }
+        if(isInterior){
+            sumIndexWeight = interiorWeightSum;
+        }
+        return sumWeights/sumIndexWeight;
+    }
+
+    private double score(double ax, double ay, double bx, double by, double stopVariance){
+        if(stopVariance == 0){
+            return 0;
+        }
+        final double dx = ax - bx;
+        final double dy = ay - by;
+        return kernel.weight(Math.sqrt(dx * dx + dy * dy)/stopVariance);
+    }
+
+}
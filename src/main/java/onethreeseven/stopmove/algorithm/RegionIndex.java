@@ -0,0 +1,314 @@
+package onethreeseven.stopmove.algorithm;
+
+import onethreeseven.geo.model.LatLonBounds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A hierarchy of spatial hash grids over a list of geographic regions, so finding the region enveloping a point
+ * only tests the few regions registered in the point's grid cells rather than every region.
+ * The finest grid's cell size is the median region extent, and each coarser grid's cells are eight times larger.
+ * Each region is registered in the finest grid where it covers only a handful of cells, so a point is looked up
+ * once per grid that has regions in it. Only regions whose bounds are not finite (or wrap) are tested for every point.
+ * The answer is always the same as scanning the list in order: the first region that contains the point.
+ * The index is immutable once built, so one index can be shared by many trajectories being classified
+ * on different threads, see {@link GBSMoT#run(ColumnarTrajectory, RegionIndex, long)}.
+ * @author Luke Bermingham
+ */
+public final class RegionIndex {
+
+    //a region is put in the finest grid where it spans no more cells than this
+    private static final int maxCellsPerRegion = 64;
+    //how much larger the cells of each coarser grid are
+    private static final int levelScale = 8;
+    //smallest cell size (in degrees), keeps cell coordinates within int range
+    private static final double minCellSize = 1e-7;
+
+    private final List<LatLonBounds> regions;
+    private final double cellSize;
+    //the grids that have at least one region in them, finest first
+    private final Level[] levels;
+    //regions that are not in any grid, in ascending order
+    private final int[] unindexedIds;
+    private final long buildTimeNanos;
+
+    /**
+     * Builds the index.
+     * @param regions The regions, a point is enveloped by the first of these (in iteration order) that contains it.
+     */
+    public RegionIndex(Collection<LatLonBounds> regions){
+        final long startTime = System.nanoTime();
+        this.regions = Collections.unmodifiableList(new ArrayList<>(regions));
+        this.cellSize = chooseCellSize(this.regions);
+
+        final int nRegions = this.regions.size();
+        final int[] regionLevels = new int[nRegions];
+        final long[][] regionCells = new long[nRegions][];
+        final ArrayList<Integer> unindexed = new ArrayList<>();
+
+        //find the grid level and the cells of each region
+        int nLevels = 0;
+        for (int id = 0; id < nRegions; id++) {
+            LatLonBounds region = this.regions.get(id);
+            if(!isFinite(region.getMinLat(), region.getMaxLat(), region.getMinLon(), region.getMaxLon()) ||
+                    region.getMinLat() > region.getMaxLat() || region.getMinLon() > region.getMaxLon()){
+                unindexed.add(id);
+                regionLevels[id] = -1;
+                continue;
+            }
+            int level = 0;
+            long[] cells = getCells(region, cellSize);
+            while(cells == null){
+                level++;
+                cells = getCells(region, getCellSize(level));
+            }
+            regionLevels[id] = level;
+            regionCells[id] = cells;
+            nLevels = Math.max(nLevels, level + 1);
+        }
+
+        //build only the grids that have regions in them
+        final boolean[] isUsed = new boolean[nLevels];
+        for (int level : regionLevels) {
+            if(level != -1){
+                isUsed[level] = true;
+            }
+        }
+        final ArrayList<Level> usedLevels = new ArrayList<>();
+        for (int level = 0; level < nLevels; level++) {
+            if(isUsed[level]){
+                usedLevels.add(Level.build(getCellSize(level), level, regionLevels, regionCells));
+            }
+        }
+        this.levels = usedLevels.toArray(new Level[usedLevels.size()]);
+        this.unindexedIds = unindexed.stream().mapToInt(Integer::intValue).toArray();
+        this.buildTimeNanos = System.nanoTime() - startTime;
+    }
+
+    /**
+     * @param lat The latitude of the point.
+     * @param lon The longitude of the point.
+     * @return The index of the first region that contains the point, or -1 if none do.
+     */
+    public int getEnvelopingRegion(double lat, double lon){
+        //region ids are in ascending order, so once an id is past the best so far it cannot be first
+        int best = Integer.MAX_VALUE;
+        for (Level level : levels) {
+            final int slot = level.cellSlots.get(toCell(lat, lon, level.cellSize));
+            if(slot == -1){
+                continue;
+            }
+            for (int i = level.slotStarts[slot]; i < level.slotStarts[slot + 1]; i++) {
+                final int id = level.regionIds[i];
+                if(id > best){
+                    break;
+                }
+                if(regions.get(id).contains(lat, lon)){
+                    best = id;
+                    break;
+                }
+            }
+        }
+        for (int id : unindexedIds) {
+            if(id > best){
+                break;
+            }
+            if(regions.get(id).contains(lat, lon)){
+                return id;
+            }
+        }
+        return best == Integer.MAX_VALUE ? -1 : best;
+    }
+
+    public LatLonBounds get(int id){
+        return regions.get(id);
+    }
+
+    /**
+     * @return The indexed regions (unmodifiable), in the order they were given.
+     */
+    public List<LatLonBounds> getRegions() {
+        return regions;
+    }
+
+    public int size(){
+        return regions.size();
+    }
+
+    /**
+     * @return How long it took to build the index (in milliseconds).
+     */
+    public double getBuildTimeMillis(){
+        return buildTimeNanos / 1e6;
+    }
+
+    /**
+     * The approximate memory used by the index structure itself, i.e. the hash tables, the cell arrays and the
+     * region references; the regions themselves are not counted.
+     * @return The approximate memory used (in bytes).
+     */
+    public long getMemoryBytes(){
+        long bytes = (long) Integer.BYTES * unindexedIds.length +
+                //assume compressed references
+                (long) Integer.BYTES * regions.size();
+        for (Level level : levels) {
+            bytes += level.cellSlots.getMemoryBytes() +
+                    (long) Integer.BYTES * (level.slotStarts.length + level.regionIds.length);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The number of grid cells (over every grid) that have at least one region registered in them.
+     */
+    public int getCellCount(){
+        int nCells = 0;
+        for (Level level : levels) {
+            nCells += level.slotStarts.length - 1;
+        }
+        return nCells;
+    }
+
+    /**
+     * @return The number of grids that have at least one region registered in them.
+     */
+    public int getLevelCount(){
+        return levels.length;
+    }
+
+    /**
+     * @return The size of each cell of the finest grid (in degrees).
+     */
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    private double getCellSize(int level){
+        return cellSize * Math.pow(levelScale, level);
+    }
+
+    /**
+     * @return The packed cells a (finite, non-inverted) region overlaps, or null if it spans too many cells.
+     */
+    private static long[] getCells(LatLonBounds region, double cellSize){
+        //count in doubles first, cell coordinates of huge regions do not fit in a long
+        final double minLatCell = Math.floor(region.getMinLat() / cellSize);
+        final double maxLatCell = Math.floor(region.getMaxLat() / cellSize);
+        final double minLonCell = Math.floor(region.getMinLon() / cellSize);
+        final double maxLonCell = Math.floor(region.getMaxLon() / cellSize);
+        if((maxLatCell - minLatCell + 1) * (maxLonCell - minLonCell + 1) > maxCellsPerRegion){
+            return null;
+        }
+        final long minLat = (long) minLatCell;
+        final long maxLat = (long) maxLatCell;
+        final long minLon = (long) minLonCell;
+        final long maxLon = (long) maxLonCell;
+        long[] cells = new long[(int) ((maxLat - minLat + 1) * (maxLon - minLon + 1))];
+        int i = 0;
+        for (long latCell = minLat; latCell <= maxLat; latCell++) {
+            for (long lonCell = minLon; lonCell <= maxLon; lonCell++) {
+                cells[i++] = pack(latCell, lonCell);
+            }
+        }
+        return cells;
+    }
+
+    private static long toCell(double lat, double lon, double cellSize){
+        return pack((long) Math.floor(lat / cellSize), (long) Math.floor(lon / cellSize));
+    }
+
+    private static long pack(long latCell, long lonCell){
+        return (latCell << 32) | (lonCell & 0xffffffffL);
+    }
+
+    private static boolean isFinite(double... values){
+        for (double value : values) {
+            if(!Double.isFinite(value)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The median of the larger side of each region (in degrees).
+     */
+    private static double chooseCellSize(List<LatLonBounds> regions){
+        double[] extents = new double[regions.size()];
+        int n = 0;
+        for (LatLonBounds region : regions) {
+            double extent = Math.max(region.getMaxLat() - region.getMinLat(), region.getMaxLon() - region.getMinLon());
+            if(Double.isFinite(extent) && extent > 0){
+                extents[n++] = extent;
+            }
+        }
+        if(n == 0){
+            return 1;
+        }
+        Arrays.sort(extents, 0, n);
+        return Math.max(minCellSize, extents[n / 2]);
+    }
+
+    /**
+     * One grid of the hierarchy, with the region ids of each cell laid out contiguously.
+     */
+    private static final class Level {
+
+        private final double cellSize;
+        //maps a packed cell coordinate to the cell's slot
+        private final LongIntHashMap cellSlots;
+        //the region ids of slot s are regionIds[slotStarts[s]..slotStarts[s+1]), in ascending order
+        private final int[] slotStarts;
+        private final int[] regionIds;
+
+        private Level(double cellSize, LongIntHashMap cellSlots, int[] slotStarts, int[] regionIds){
+            this.cellSize = cellSize;
+            this.cellSlots = cellSlots;
+            this.slotStarts = slotStarts;
+            this.regionIds = regionIds;
+        }
+
+        /**
+         * @return The grid of the regions at the given level (there must be at least one).
+         */
+        static Level build(double cellSize, int level, int[] regionLevels, long[][] regionCells){
+            //first pass: count the regions in each cell
+            LongIntHashMap slots = new LongIntHashMap(16);
+            int[] slotCounts = new int[16];
+            for (int id = 0; id < regionLevels.length; id++) {
+                if(regionLevels[id] != level){continue;}
+                for (long cell : regionCells[id]) {
+                    int slot = slots.putIfAbsent(cell, slots.size());
+                    if(slot == -1){
+                        slot = slots.size() - 1;
+                        if(slot == slotCounts.length){
+                            slotCounts = Arrays.copyOf(slotCounts, slotCounts.length * 2);
+                        }
+                    }
+                    slotCounts[slot]++;
+                }
+            }
+
+            //second pass: lay out the region ids of each cell contiguously
+            final int nSlots = slots.size();
+            final int[] slotStarts = new int[nSlots + 1];
+            for (int s = 0; s < nSlots; s++) {
+                slotStarts[s + 1] = slotStarts[s] + slotCounts[s];
+            }
+            final int[] regionIds = new int[slotStarts[nSlots]];
+            final int[] fillIdx = Arrays.copyOf(slotStarts, nSlots);
+            for (int id = 0; id < regionLevels.length; id++) {
+                if(regionLevels[id] != level){continue;}
+                for (long cell : regionCells[id]) {
+                    regionIds[fillIdx[slots.get(cell)]++] = id;
+                }
+            }
+            return new Level(cellSize, slots, slotStarts, regionIds);
+        }
+    }
+
+}
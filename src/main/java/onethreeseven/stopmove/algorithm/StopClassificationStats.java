@@ -33,36 +33,77 @@ public class StopClassificationStats {
             throw new IllegalArgumentException("Data must be same size");
         }
 
-        tp = 0;
-        tn = 0;
-        fp = 0;
-        fn = 0;
+        int nTruePositive = 0;
+        int nTrueNegative = 0;
+        int nFalsePositive = 0;
+        int nFalseNegative = 0;
 
         for (int i = 0; i < truth.size(); i++) {
 
             boolean truthIsStopped = truth.get(i).isStopped();
             boolean calculatedIsStopped = calculated.get(i).isStopped();
 
-            if(calculatedIsStopped){
-                nStops++;
-            }else{
-                nMoves++;
-            }
-
             if(calculatedIsStopped && truthIsStopped){
-                tp++;
+                nTruePositive++;
             }
             else if(!calculatedIsStopped && !truthIsStopped){
-                tn++;
+                nTrueNegative++;
             }
             else if(calculatedIsStopped){
-                fp++;
+                nFalsePositive++;
             }
             else {
-                fn++;
+                nFalseNegative++;
             }
 
         }
+        calculateStats(nTruePositive, nTrueNegative, nFalsePositive, nFalseNegative);
+    }
+
+    /**
+     * Same as {@link #calculateStats(STStopTrajectory, STStopTrajectory)}, but reads the calculated
+     * labels straight from the label view so no stop/move trajectory needs to be made.
+     * @param truth The ground truth stop/move trajectory.
+     * @param calculated The calculated stop/move labels.
+     */
+    public void calculateStats(STStopTrajectory truth, StopMoveLabels calculated){
+
+        if(truth.size() != calculated.size()){
+            throw new IllegalArgumentException("Data must be same size");
+        }
+
+        final int n = truth.size();
+        int nTruthStops = 0;
+        int nTruePositive = 0;
+        for (int i = 0; i < n; i++) {
+            if(truth.get(i).isStopped()){
+                nTruthStops++;
+                if(calculated.isStopped(i)){
+                    nTruePositive++;
+                }
+            }
+        }
+        int nFalsePositive = calculated.getnStops() - nTruePositive;
+        int nFalseNegative = nTruthStops - nTruePositive;
+        int nTrueNegative = n - nTruePositive - nFalsePositive - nFalseNegative;
+        calculateStats(nTruePositive, nTrueNegative, nFalsePositive, nFalseNegative);
+    }
+
+    /**
+     * Calculates the stats from the confusion counts directly.
+     * @param nTruePositive Number of stops classified as stops.
+     * @param nTrueNegative Number of moves classified as moves.
+     * @param nFalsePositive Number of moves classified as stops.
+     * @param nFalseNegative Number of stops classified as moves.
+     */
+    public void calculateStats(int nTruePositive, int nTrueNegative, int nFalsePositive, int nFalseNegative){
+        tp = nTruePositive;
+        tn = nTrueNegative;
+        fp = nFalsePositive;
+        fn = nFalseNegative;
+        nStops = nTruePositive + nFalsePositive;
+        nMoves = nTrueNegative + nFalseNegative;
+
         //calculate stats
         precision = tp/(tp+fp);
         truePositiveRate = tp/(tp+fn);
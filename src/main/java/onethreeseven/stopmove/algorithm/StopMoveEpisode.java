@@ -0,0 +1,90 @@
+package onethreeseven.stopmove.algorithm;
+
+/**
+ * A maximal run of consecutive entries in a trajectory that share the same stop/move label.
+ * See {@link ExtractEpisodes} for how these are made.
+ * @author Luke Bermingham
+ */
+public final class StopMoveEpisode {
+
+    private final boolean isStop;
+    private final int startIdx;
+    private final int endIdx;
+    private final long startEpochMillis;
+    private final long endEpochMillis;
+    private final double centroidX;
+    private final double centroidY;
+    private final double meanStopPr;
+
+    StopMoveEpisode(boolean isStop, int startIdx, int endIdx, long startEpochMillis, long endEpochMillis,
+                    double centroidX, double centroidY, double meanStopPr) {
+        this.isStop = isStop;
+        this.startIdx = startIdx;
+        this.endIdx = endIdx;
+        this.startEpochMillis = startEpochMillis;
+        this.endEpochMillis = endEpochMillis;
+        this.centroidX = centroidX;
+        this.centroidY = centroidY;
+        this.meanStopPr = meanStopPr;
+    }
+
+    public boolean isStop() {
+        return isStop;
+    }
+
+    /**
+     * @return The index of the first entry in this episode (inclusive).
+     */
+    public int getStartIdx() {
+        return startIdx;
+    }
+
+    /**
+     * @return The index of the last entry in this episode (inclusive).
+     */
+    public int getEndIdx() {
+        return endIdx;
+    }
+
+    /**
+     * @return How many entries are in this episode.
+     */
+    public int size(){
+        return endIdx - startIdx + 1;
+    }
+
+    public long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+
+    public long getEndEpochMillis() {
+        return endEpochMillis;
+    }
+
+    /**
+     * @return The time between the first and last entry of this episode (in milliseconds).
+     */
+    public long getDurationMillis(){
+        return endEpochMillis - startEpochMillis;
+    }
+
+    /**
+     * @return The mean cartesian coordinates of the entries in this episode.
+     */
+    public double[] getCentroid(){
+        return new double[]{centroidX, centroidY};
+    }
+
+    /**
+     * @return The mean stop probability of the entries in this episode,
+     * or NaN if the classifier does not produce probabilities.
+     */
+    public double getMeanStopPr() {
+        return meanStopPr;
+    }
+
+    @Override
+    public String toString() {
+        return (isStop ? "Stop" : "Move") + "[" + startIdx + "-" + endIdx + ", " + getDurationMillis() + "ms]";
+    }
+}
@@ -0,0 +1,121 @@
+package onethreeseven.stopmove.algorithm;
+
+import onethreeseven.datastructures.model.STPt;
+import onethreeseven.datastructures.model.STStopTrajectory;
+import onethreeseven.datastructures.model.SpatioCompositeTrajectory;
+import onethreeseven.datastructures.model.TimeAndStop;
+
+import java.time.LocalDateTime;
+import java.util.BitSet;
+
+/**
+ * The result of a stop/move classification as a view over the classified trajectory.
+ * Rather than copying every entry into a new {@link STStopTrajectory} this only keeps a bit per entry
+ * (and optionally the stop probabilities), the coordinates and times are read from the source trajectory.
+ * An {@link STStopTrajectory} can still be made on demand using {@link #toStopTrajectory()}.
+ * @author Luke Bermingham
+ */
+public class StopMoveLabels {
+
+    private final SpatioCompositeTrajectory<? extends STPt> source;
+    private final BitSet stops;
+    private final double[] stopPrs;
+
+    /**
+     * @param source The trajectory that was classified.
+     * @param stops The indices of the entries that are stops, all other entries are moves.
+     */
+    public StopMoveLabels(SpatioCompositeTrajectory<? extends STPt> source, BitSet stops){
+        this(source, stops, null);
+    }
+
+    /**
+     * @param source The trajectory that was classified.
+     * @param stops The indices of the entries that are stops, all other entries are moves
+     *              (indices past the end of the trajectory are ignored).
+     * @param stopPrs The stop probability of each entry, or null if the classifier does not produce them.
+     */
+    public StopMoveLabels(SpatioCompositeTrajectory<? extends STPt> source, BitSet stops, double[] stopPrs){
+        if(stopPrs != null && stopPrs.length != source.size()){
+            throw new IllegalArgumentException("Data must be same size");
+        }
+        this.source = source;
+        //only copy the stops if some are past the end, so they are not counted
+        this.stops = stops.length() > source.size() ? stops.get(0, source.size()) : stops;
+        this.stopPrs = stopPrs;
+    }
+
+    public int size(){
+        return source.size();
+    }
+
+    public boolean isStopped(int i){
+        return stops.get(i);
+    }
+
+    /**
+     * @param i The index of the entry.
+     * @return The stop probability of the entry, or NaN if the classifier does not produce probabilities.
+     */
+    public double getStopPr(int i){
+        return stopPrs == null ? Double.NaN : stopPrs[i];
+    }
+
+    public boolean hasStopPrs(){
+        return stopPrs != null;
+    }
+
+    public LocalDateTime getTime(int i){
+        return source.get(i).getTime();
+    }
+
+    public double[] getCoords(int i, boolean inCartesian){
+        return source.getCoords(i, inCartesian);
+    }
+
+    public SpatioCompositeTrajectory<? extends STPt> getSource() {
+        return source;
+    }
+
+    /**
+     * @return A copy of the stop labels, a set bit means the entry at that index is a stop.
+     */
+    public BitSet getStops(){
+        return (BitSet) stops.clone();
+    }
+
+    public int getnStops(){
+        return stops.cardinality();
+    }
+
+    public int getnMoves(){
+        return size() - getnStops();
+    }
+
+    /**
+     * Makes a stop/move trajectory in the same coordinate mode as the source trajectory.
+     * @return A spatio-temporal trajectory with an extra dimension indicating whether points are moving or stopping.
+     */
+    public STStopTrajectory toStopTrajectory(){
+        return toStopTrajectory(source.isInCartesianMode());
+    }
+
+    /**
+     * Makes a stop/move trajectory.
+     * @param inCartesian Whether the new trajectory should store cartesian coordinates (otherwise geographic).
+     * @return A spatio-temporal trajectory with an extra dimension indicating whether points are moving or stopping.
+     */
+    public STStopTrajectory toStopTrajectory(boolean inCartesian){
+        STStopTrajectory output = new STStopTrajectory(inCartesian, source.getProjection());
+        for (int i = 0; i < source.size(); i++) {
+            TimeAndStop timeAndStop = new TimeAndStop(source.get(i).getTime(), stops.get(i));
+            if(inCartesian){
+                output.addCartesian(source.getCoords(i, true), timeAndStop);
+            }else{
+                output.addGeographic(source.getCoords(i, false), timeAndStop);
+            }
+        }
+        return output;
+    }
+
+}
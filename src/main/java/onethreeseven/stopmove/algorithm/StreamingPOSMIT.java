@@ -0,0 +1,153 @@
+package onethreeseven.stopmove.algorithm;
+
+/**
+ * An online version of {@link POSMIT} for trajectories that arrive one entry at a time (i.e. live GPS pings).
+ * Only a ring buffer of the last (2 * cutoff radius + 1) entries is kept, so memory stays constant
+ * no matter how long the stream runs. Each entry's stop probability is emitted once enough entries after it
+ * have arrived; when the emit delay equals the cutoff radius (the default) the probabilities are identical to
+ * running {@link POSMIT#run(ColumnarTrajectory, int, double)} over the whole trajectory. A smaller emit delay
+ * lowers latency by ignoring the neighbours that have not arrived yet, in the same way POSMIT treats the end
+ * of a trajectory.
+ * One instance should be used per trajectory (i.e. per vehicle), it is not thread-safe.
+ * @author Luke Bermingham
+ */
+public class StreamingPOSMIT {
+
+    /**
+     * Receives each entry once its stop probability is known.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        /**
+         * @param index The index of the entry in the stream (starting at zero).
+         * @param epochMillis The time of the entry.
+         * @param stopPr The stop probability of the entry.
+         * @param isStopped Whether the stop probability met the minimum stop probability.
+         */
+        void accept(long index, long epochMillis, double stopPr, boolean isStopped);
+    }
+
+    private final POSMITWindow window;
+    private final double stopVariance;
+    private final double minStopPr;
+    private final int emitDelay;
+    private final EntryConsumer consumer;
+
+    //ring buffers, an entry with stream index i is stored at i % capacity
+    private final double[] xs;
+    private final double[] ys;
+    private final long[] epochMillis;
+
+    //stream index of the next entry to be added
+    private long nextIdx = 0;
+    //stream index of the next entry to be emitted
+    private long nextEmitIdx = 0;
+
+    /**
+     * Makes a streaming classifier that emits each entry as soon as its whole right-hand window has arrived,
+     * using the {@link POSMITKernel#GAUSSIAN} kernel.
+     * @param nSearchRadius Essentially how large of a sliding window to use when calculating probabilities.
+     * @param stopVariance The common speed variance within a stop (in meters per second).
+     * @param minStopPr The minimum probability an entry must have to be classified as a stop.
+     * @param consumer Receives each entry's stop probability and label.
+     */
+    public StreamingPOSMIT(int nSearchRadius, double stopVariance, double minStopPr, EntryConsumer consumer){
+        this(nSearchRadius, stopVariance, minStopPr, Integer.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Makes a streaming classifier using the {@link POSMITKernel#GAUSSIAN} kernel.
+     * @param nSearchRadius Essentially how large of a sliding window to use when calculating probabilities.
+     * @param stopVariance The common speed variance within a stop (in meters per second).
+     * @param minStopPr The minimum probability an entry must have to be classified as a stop.
+     * @param maxEmitDelay The maximum number of entries that may arrive after an entry before it is emitted.
+     *                     Values larger than the cutoff radius are clamped to it.
+     * @param consumer Receives each entry's stop probability and label.
+     */
+    public StreamingPOSMIT(int nSearchRadius, double stopVariance, double minStopPr,
+                           int maxEmitDelay, EntryConsumer consumer){
+        this(nSearchRadius, stopVariance, minStopPr, maxEmitDelay, POSMITKernel.GAUSSIAN, consumer);
+    }
+
+    /**
+     * Makes a streaming classifier.
+     * @param nSearchRadius Essentially how large of a sliding window to use when calculating probabilities.
+     * @param stopVariance The common speed variance within a stop (in meters per second).
+     * @param minStopPr The minimum probability an entry must have to be classified as a stop.
+     * @param maxEmitDelay The maximum number of entries that may arrive after an entry before it is emitted.
+     *                     Values larger than the cutoff radius are clamped to it.
+     * @param kernel The kernel used to weight neighbours by index offset and by displacement.
+     * @param consumer Receives each entry's stop probability and label.
+     */
+    public StreamingPOSMIT(int nSearchRadius, double stopVariance, double minStopPr,
+                           int maxEmitDelay, POSMITKernel kernel, EntryConsumer consumer){
+        if(maxEmitDelay < 0){
+            throw new IllegalArgumentException("Max emit delay cannot be negative.");
+        }
+        this.window = new POSMITWindow(nSearchRadius, kernel);
+        this.stopVariance = stopVariance;
+        this.minStopPr = minStopPr;
+        this.emitDelay = Math.min(maxEmitDelay, window.getCutoffRadius());
+        this.consumer = consumer;
+
+        final int capacity = 2 * window.getCutoffRadius() + 1;
+        this.xs = new double[capacity];
+        this.ys = new double[capacity];
+        this.epochMillis = new long[capacity];
+    }
+
+    /**
+     * Adds the next entry of the stream, which may cause an earlier entry to be emitted.
+     * @param x The cartesian x coordinate of the entry.
+     * @param y The cartesian y coordinate of the entry.
+     * @param epochMillis The time of the entry.
+     */
+    public void add(double x, double y, long epochMillis){
+        final int pos = (int) (nextIdx % xs.length);
+        this.xs[pos] = x;
+        this.ys[pos] = y;
+        this.epochMillis[pos] = epochMillis;
+        nextIdx++;
+
+        final long lastIdx = nextIdx - 1;
+        if(lastIdx - nextEmitIdx >= emitDelay){
+            emit(lastIdx);
+        }
+    }
+
+    /**
+     * Emits all the entries that have not been emitted yet, treating the last added entry as the
+     * end of the trajectory.
+     */
+    public void flush(){
+        final long lastIdx = nextIdx - 1;
+        while(nextEmitIdx <= lastIdx){
+            emit(lastIdx);
+        }
+    }
+
+    /**
+     * @return The number of entries that have been added but not yet emitted.
+     */
+    public int getPendingCount(){
+        return (int) (nextIdx - nextEmitIdx);
+    }
+
+    /**
+     * @return The number of entries an entry waits for before it is emitted.
+     */
+    public int getEmitDelay() {
+        return emitDelay;
+    }
+
+    private void emit(long lastIdx){
+        final long centerIdx = nextEmitIdx;
+        //the ring only goes back as far as the cutoff radius (or the start of the stream)
+        final long firstIdx = Math.max(0, centerIdx - window.getCutoffRadius());
+        final double stopPr = window.getStopPr(xs, ys, centerIdx, firstIdx, lastIdx, stopVariance);
+        final int pos = (int) (centerIdx % xs.length);
+        consumer.accept(centerIdx, epochMillis[pos], stopPr, stopPr >= minStopPr);
+        nextEmitIdx++;
+    }
+
+}
@@ -2,120 +2,141 @@ package onethreeseven.stopmove.algorithm;
 
 import onethreeseven.common.util.Maths;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Optional;
+import java.util.NoSuchElementException;
 
 /**
- * Lloyd's K-Means clustering.
- * See: https://en.wikipedia.org/wiki/K-means_clustering#Standard_algorithm
+ * Optimal K-Means clustering for one dimensional data.
+ * In one dimension every cluster of an optimal clustering is a contiguous run of the sorted values,
+ * so we sort once and find the k runs with the least within-cluster sum of squares using dynamic programming
+ * (with the divide-and-conquer optimisation, as the best split point only moves right as the end point does).
+ * Sums of squares are read from prefix sums, so the whole thing is O(n log n + k n log n) with no boxing.
+ * See: "Ckmeans.1d.dp: Optimal k-means Clustering in One Dimension by Dynamic Programming" by Wang and Song.
  * @author Luke Bermingham
  */
 public class UnivariateKMeans {
 
     /**
      * Runs the K-Means algorithm.
+     * NaN values are ignored.
      * @param data The data to clusters.
      * @param k How many clusters to find.
-     * @return K clusters found in the data.
+     * @return K clusters found in the data, ordered from smallest to largest values.
+     * If there are fewer values than clusters the extra clusters are empty.
      */
     public Cluster[] run(double[] data, int k){
+        if(k < 1){
+            throw new IllegalArgumentException("Must find at least one cluster.");
+        }
+
+        final double[] sorted = Arrays.stream(data).filter(value -> !Double.isNaN(value)).toArray();
+        Arrays.sort(sorted);
+        final int n = sorted.length;
+        final int nNonEmpty = Math.min(k, n);
+
         Cluster[] clusters = new Cluster[k];
-        for (int i = 0; i < k; i++) {
-            clusters[i] = new Cluster();
+        for (int m = nNonEmpty; m < k; m++) {
+            clusters[m] = new Cluster(sorted, n, n);
+        }
+        if(nNonEmpty == 0){
+            return clusters;
         }
 
-        //split displacements between each of the clusters
-        {
-            final double splitSize = (data.length - 1) / (double)clusters.length;
-            for (int i = 1; i < data.length; i++) {
-                int clusterIdx = (int) (Math.ceil(i / (splitSize))) - 1;
-                clusters[clusterIdx].add(data[i]);
-            }
-            //to initialise the means
-            for (Cluster cluster : clusters) {
-                cluster.update();
-            }
+        //prefix sums of the values (shifted by their mean to keep the sums of squares precise)
+        final double shift = sorted[n/2];
+        final double[] sum = new double[n + 1];
+        final double[] sumSq = new double[n + 1];
+        for (int i = 0; i < n; i++) {
+            double value = sorted[i] - shift;
+            sum[i + 1] = sum[i] + value;
+            sumSq[i + 1] = sumSq[i] + value * value;
         }
 
-        //this is the whole k-means algorithm, reassign values within clusters
-        //then update the cluster's means
-        boolean keepClustering = true;
-        while(keepClustering){
-            boolean reassignedValue = false;
-            //reassign cluster values if possible
-            for (int i = 0; i < clusters.length; i++) {
-                if(reassign(clusters, i)){
-                    reassignedValue = true;
-                }
-            }
-            //update clusters if necessary
-            if(reassignedValue){
-                for (Cluster cluster : clusters) {
-                    cluster.update();
-                }
-            }
-            keepClustering = reassignedValue;
+        //splits[m][j] is where the m-th cluster starts when clustering sorted[0..j] into m+1 clusters
+        final int[][] splits = new int[nNonEmpty][n];
+        double[] prevCosts = new double[n];
+        double[] curCosts = new double[n];
+        for (int j = 0; j < n; j++) {
+            prevCosts[j] = cost(sum, sumSq, 0, j);
+        }
+
+        for (int m = 1; m < nNonEmpty; m++) {
+            fillCosts(sum, sumSq, prevCosts, curCosts, splits[m], m, m, n - 1, m, n - 1);
+            double[] tmp = prevCosts;
+            prevCosts = curCosts;
+            curCosts = tmp;
+        }
+
+        //walk back through the splits to find each cluster's range
+        int endIdx = n - 1;
+        for (int m = nNonEmpty - 1; m >= 0; m--) {
+            int startIdx = splits[m][endIdx];
+            clusters[m] = new Cluster(sorted, startIdx, endIdx + 1);
+            endIdx = startIdx - 1;
         }
         return clusters;
     }
 
-
     /**
-     * Check all values in a certain cluster to see if they are closer
-     * to another cluster's centroid. If they are move them to the closest cluster.
-     * @param clusters The set of all clusters.
-     * @param clusterIdx The index of the cluster who needs its values checked for reassignment.
-     * @return True if any values swapped clusters, otherwise false.
+     * Fills in the least cost of clustering sorted[0..j] into m+1 clusters for each j in [jLo, jHi],
+     * knowing that the best start of the last cluster lies within [iLo, iHi].
      */
-    private boolean reassign(Cluster[] clusters, int clusterIdx){
-        boolean movedValue = false;
-        Cluster clusterToReassign = clusters[clusterIdx];
-        Iterator<Double> c1Iter = clusterToReassign.iterator();
-        while(c1Iter.hasNext()){
-            double value = c1Iter.next();
-
-            double bestDist = Math.abs(clusterToReassign.centroid - value);;
-            Cluster betterCluster = null;
-
-            //check other clusters for a closer centroid
-            for (int i = 0; i < clusters.length; i++) {
-                if(i == clusterIdx){continue;}
-                Cluster otherCluster = clusters[i];
-                double distToOtherCluster = Math.abs(otherCluster.centroid - value);
-                if(distToOtherCluster < bestDist){
-                    bestDist = distToOtherCluster;
-                    betterCluster = otherCluster;
-                }
-            }
-            //if there was a closer centroid, move the value to the appropriate cluster
-            if(betterCluster != null){
-                c1Iter.remove();
-                clusterToReassign.total -= value;
-                betterCluster.add(value);
-                movedValue = true;
+    private void fillCosts(double[] sum, double[] sumSq, double[] prevCosts, double[] curCosts, int[] splits,
+                           int m, int jLo, int jHi, int iLo, int iHi){
+        if(jLo > jHi){
+            return;
+        }
+        final int j = (jLo + jHi) >>> 1;
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestIdx = Math.max(iLo, m);
+        for (int i = Math.max(iLo, m); i <= Math.min(j, iHi); i++) {
+            double cost = prevCosts[i - 1] + cost(sum, sumSq, i, j);
+            if(cost < bestCost){
+                bestCost = cost;
+                bestIdx = i;
             }
         }
-        return movedValue;
+        curCosts[j] = bestCost;
+        splits[j] = bestIdx;
+        fillCosts(sum, sumSq, prevCosts, curCosts, splits, m, jLo, j - 1, iLo, bestIdx);
+        fillCosts(sum, sumSq, prevCosts, curCosts, splits, m, j + 1, jHi, bestIdx, iHi);
     }
 
-    public class Cluster implements Iterable<Double>{
-
-        private final ArrayList<Double> values;
-        private double centroid;
-        private double total = 0;
-
-        Cluster(){
-            this.values = new ArrayList<>();
-        }
+    /**
+     * @return The sum of squared distances to the mean of sorted[i..j] (inclusive).
+     */
+    private static double cost(double[] sum, double[] sumSq, int i, int j){
+        final int size = j - i + 1;
+        final double s = sum[j + 1] - sum[i];
+        final double sq = sumSq[j + 1] - sumSq[i];
+        return Math.max(0, sq - (s * s) / size);
+    }
 
-        private void update(){
-            this.centroid = total / values.size();
+    /**
+     * A contiguous run of the sorted values.
+     */
+    public static class Cluster implements Iterable<Double>{
+
+        private final double[] sorted;
+        private final int startIdx;
+        private final int endIdx;
+        private final double centroid;
+        private double std = Double.NaN;
+
+        Cluster(double[] sorted, int startIdx, int endIdx){
+            this.sorted = sorted;
+            this.startIdx = startIdx;
+            this.endIdx = endIdx;
+            double total = 0;
+            for (int i = startIdx; i < endIdx; i++) {
+                total += sorted[i];
+            }
+            this.centroid = total / (endIdx - startIdx);
         }
 
-        private void add(Double value){
-            this.values.add(value);
-            this.total += value;
+        public int size(){
+            return endIdx - startIdx;
         }
 
         public double getMean(){
@@ -123,28 +144,44 @@ public class UnivariateKMeans {
         }
 
         public double getStd(){
-            return Maths.std(this.values.stream().mapToDouble(value -> value).toArray());
+            if(Double.isNaN(std)){
+                std = Maths.std(Arrays.copyOfRange(sorted, startIdx, endIdx));
+            }
+            return std;
         }
 
         public double getMax(){
-            Optional<Double> maxOpt = values.stream().max(Double::compare);
-            if(maxOpt.isPresent()){
-                return maxOpt.get();
+            if(endIdx > startIdx){
+                return sorted[endIdx - 1];
             }
             throw new IllegalStateException("Somehow couldn't get max value...");
         }
 
         public double getMin(){
-            Optional<Double> minOpt = values.stream().min(Double::compare);
-            if(minOpt.isPresent()){
-                return minOpt.get();
+            if(endIdx > startIdx){
+                return sorted[startIdx];
             }
             throw new IllegalStateException("Somehow couldn't get max value...");
         }
 
         @Override
         public Iterator<Double> iterator() {
-            return this.values.iterator();
+            return new Iterator<Double>() {
+                private int idx = startIdx;
+
+                @Override
+                public boolean hasNext() {
+                    return idx < endIdx;
+                }
+
+                @Override
+                public Double next() {
+                    if(idx >= endIdx){
+                        throw new NoSuchElementException();
+                    }
+                    return sorted[idx++];
+                }
+            };
         }
     }
 
@@ -1,5 +1,6 @@
 package onethreeseven.stopmove.command;
 
+import com.beust.jcommander.Parameter;
 import onethreeseven.common.util.ColorUtil;
 import onethreeseven.datastructures.graphics.STStopTrajectoryGraphic;
 import onethreeseven.datastructures.model.STPt;
@@ -11,10 +12,17 @@ import onethreeseven.trajsuitePlugin.model.TransactionProcessor;
 import onethreeseven.trajsuitePlugin.model.WrappedEntity;
 import onethreeseven.trajsuitePlugin.transaction.AddEntitiesTransaction;
 
-import java.awt.*;
+import java.awt.Color;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 /**
@@ -59,8 +67,15 @@ public abstract class AbstractStopMoveCommand extends CLICommand {
 
     private Map<String, SpatioCompositeTrajectory<? extends STPt>> allTrajs = null;
 
+    @Parameter(names = {"-nt", "--nThreads"}, description = "How many trajectories to classify at the same time.")
+    private int nThreads = 1;
+
     @Override
     protected boolean parametersValid() {
+        if(nThreads < 1){
+            System.err.println("Number of threads must be one or greater.");
+            return false;
+        }
         allTrajs = getSelectedTrajs();
         if(allTrajs.isEmpty()){
             System.err.println("There was no selected trajectory to find stop/move from.");
@@ -76,29 +91,25 @@ public abstract class AbstractStopMoveCommand extends CLICommand {
             return false;
         }
 
+        //fix the order of the trajectories so colours match up with the same trajectory however they are processed
+        final List<Map.Entry<String, SpatioCompositeTrajectory<? extends STPt>>> entries = new ArrayList<>(allTrajs.entrySet());
+
+        STStopTrajectory[] stopTrajs = (nThreads > 1) ? classifyParallel(entries) : classifySequential(entries);
+        if(stopTrajs == null){
+            return false;
+        }
+
         AddEntitiesTransaction transaction = new AddEntitiesTransaction();
         String layername = generateLayerNameForNewStopMoveTrajs(allTrajs);
 
-        int nTrajs = allTrajs.size();
+        int nTrajs = entries.size();
         java.awt.Color[] colors = ColorUtil.generateNColors(nTrajs);
 
-        int i = 0;
-        for (Map.Entry<String, SpatioCompositeTrajectory<? extends STPt>> entry : allTrajs.entrySet()) {
+        for (int i = 0; i < nTrajs; i++) {
 
-            if(!isRunning.get()){
-                return false;
-            }
+            STStopTrajectory stopTraj = stopTrajs[i];
 
-            if(progressReporter != null){
-                double progress = i / (double)nTrajs;
-                progressReporter.accept(progress);
-            }
-
-            SpatioCompositeTrajectory<? extends STPt> traj = entry.getValue();
-
-            STStopTrajectory stopTraj = toStopMoveTraj(traj);
-
-            String entityId = "sm_" + entry.getKey();
+            String entityId = "sm_" + entries.get(i).getKey();
 
             STStopTrajectoryGraphic graphic = new STStopTrajectoryGraphic(stopTraj);
 
@@ -108,8 +119,6 @@ public abstract class AbstractStopMoveCommand extends CLICommand {
             graphic.fallbackColor.setValue(color);
 
             transaction.add(layername, entityId, stopTraj, graphic);
-
-            i++;
         }
 
         //add entities
@@ -121,6 +130,81 @@ public abstract class AbstractStopMoveCommand extends CLICommand {
         return true;
     }
 
+    /**
+     * Classifies each trajectory one after another.
+     * @param entries The trajectories to classify.
+     * @return The stop/move trajectories (in the same order), or null if the command was stopped.
+     */
+    private STStopTrajectory[] classifySequential(List<Map.Entry<String, SpatioCompositeTrajectory<? extends STPt>>> entries){
+        final int nTrajs = entries.size();
+        final STStopTrajectory[] stopTrajs = new STStopTrajectory[nTrajs];
+        for (int i = 0; i < nTrajs; i++) {
+
+            if(!isRunning.get()){
+                return null;
+            }
+
+            if(progressReporter != null){
+                double progress = i / (double)nTrajs;
+                progressReporter.accept(progress);
+            }
+
+            stopTrajs[i] = toStopMoveTraj(entries.get(i).getValue());
+        }
+        return stopTrajs;
+    }
+
+    /**
+     * Classifies the trajectories concurrently using a pool of nThreads.
+     * Results are stored by position, so the output order does not depend on which thread finishes first.
+     * Progress is reported from the calling thread as each trajectory finishes, so the progress reporter
+     * never has to be thread-safe.
+     * @param entries The trajectories to classify.
+     * @return The stop/move trajectories (in the same order), or null if the command was stopped.
+     */
+    private STStopTrajectory[] classifyParallel(List<Map.Entry<String, SpatioCompositeTrajectory<? extends STPt>>> entries){
+        final int nTrajs = entries.size();
+        final STStopTrajectory[] stopTrajs = new STStopTrajectory[nTrajs];
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(nThreads, nTrajs));
+        final CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+
+        try{
+            for (int i = 0; i < nTrajs; i++) {
+                final int trajIdx = i;
+                completionService.submit(() -> {
+                    if(isRunning.get()){
+                        stopTrajs[trajIdx] = toStopMoveTraj(entries.get(trajIdx).getValue());
+                    }
+                    return null;
+                });
+            }
+            //wait for the workers as they finish, the future also makes their writes to stopTrajs visible to this thread
+            for (int nDone = 1; nDone <= nTrajs; nDone++) {
+                completionService.take().get();
+                if(progressReporter != null){
+                    progressReporter.accept(nDone / (double)nTrajs);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            //rethrow what the worker threw, so callers see the same exceptions as the sequential version
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            if(cause instanceof Error){
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Could not find stops/moves for a trajectory.", cause);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return isRunning.get() ? stopTrajs : null;
+    }
+
     protected abstract String generateLayerNameForNewStopMoveTrajs(Map<String, SpatioCompositeTrajectory<? extends STPt>> allTrajs);
 
     protected abstract STStopTrajectory toStopMoveTraj(SpatioCompositeTrajectory<? extends STPt> traj);
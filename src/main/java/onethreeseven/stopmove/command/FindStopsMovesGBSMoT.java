@@ -20,6 +20,9 @@ public class FindStopsMovesGBSMoT extends AbstractStopMoveCommand {
     @Parameter(names = {"-t", "-minStopTime"}, description = "The minimum time for a trajectory to stay in a region for it to be considered a stop.")
     private int minStopTimeSeconds;
 
+    @Parameter(names = {"-c", "-cartesian"}, description = "Assign entries to grid cells directly from their projected coordinates (faster, no geographic regions are made).")
+    private boolean cartesian = false;
+
     @Override
     protected String generateLayerNameForNewStopMoveTrajs(Map<String, SpatioCompositeTrajectory<? extends STPt>> allTrajs) {
         return allTrajs.size() + " Stop/Moves Trajectories (POSMIT) Region=" + regionSizeMetres + "m";
@@ -29,6 +32,9 @@ public class FindStopsMovesGBSMoT extends AbstractStopMoveCommand {
     protected STStopTrajectory toStopMoveTraj(SpatioCompositeTrajectory<? extends STPt> traj) {
         GBSMoT gbsMoT = new GBSMoT();
         long minStopTimeMillis = minStopTimeSeconds * 1000L;
+        if(cartesian){
+            return gbsMoT.runCartesianLabels(traj, regionSizeMetres, minStopTimeMillis).toStopTrajectory(false);
+        }
         return gbsMoT.run(traj, regionSizeMetres, minStopTimeMillis);
     }
 
@@ -4,7 +4,10 @@ import com.beust.jcommander.Parameter;
 import onethreeseven.datastructures.model.STPt;
 import onethreeseven.datastructures.model.STStopTrajectory;
 import onethreeseven.datastructures.model.SpatioCompositeTrajectory;
+import onethreeseven.stopmove.algorithm.ColumnarTrajectory;
 import onethreeseven.stopmove.algorithm.POSMIT;
+import onethreeseven.stopmove.algorithm.POSMITKernel;
+import onethreeseven.stopmove.algorithm.StopMoveLabels;
 import java.util.Map;
 
 /**
@@ -25,6 +28,16 @@ public class FindStopsMovesPOSMIT extends AbstractStopMoveCommand {
             "this value represents the minimum stop probability for an entry to be classified as a stop.")
     private double minStopPr = 0.7;
 
+    @Parameter(names = {"-k", "--kernel"}, description = "The kernel used to weight neighbours, one of: " +
+            "GAUSSIAN, TABULATED_GAUSSIAN (faster, within 5e-7 of GAUSSIAN), " +
+            "EPANECHNIKOV or TRIWEIGHT (compact, so fewer neighbours are checked).")
+    private POSMITKernel kernel = POSMITKernel.GAUSSIAN;
+
+    @Parameter(names = {"-d", "--decisionOnly"}, description = "Only decide whether each entry is a stop or a move, " +
+            "which is faster as neighbours are skipped once they cannot change the decision, " +
+            "but the stop probabilities are not kept.")
+    private boolean decisionOnly = false;
+
     @Override
     protected String getUsage() {
         return "posmit -hd 10 -hi 5 -pr 0.7";
@@ -81,15 +94,33 @@ public class FindStopsMovesPOSMIT extends AbstractStopMoveCommand {
 
     @Override
     protected STStopTrajectory toStopMoveTraj(SpatioCompositeTrajectory<? extends STPt> traj) {
-        POSMIT posmit = new POSMIT();
-        //get params (potentially estimating them if not passed in)
-        double hd = this.stopVariance == null ?
-                posmit.estimateStopVariance(traj) : this.stopVariance;
+        POSMIT posmit = new POSMIT(kernel);
+        ColumnarTrajectory columns = new ColumnarTrajectory(traj);
+
+        if(decisionOnly){
+            double hd = this.stopVariance == null ?
+                    posmit.estimateStopVariance(columns) : this.stopVariance;
+
+            int hi = this.indexNeighbourhood == null ?
+                    posmit.estimateSearchRadius(columns, hd) : this.indexNeighbourhood;
 
-        int hi = this.indexNeighbourhood == null ?
-                posmit.estimateSearchRadius(traj, hd) : this.indexNeighbourhood;
+            return new StopMoveLabels(traj, posmit.runDecision(columns, hi, hd, minStopPr)).toStopTrajectory(false);
+        }
+
+        double[] stopPrs;
+        if(this.stopVariance == null && this.indexNeighbourhood == null){
+            //estimate both params in one pass
+            stopPrs = posmit.runAuto(columns).getStopProbabilities();
+        }else{
+            //get params (potentially estimating them if not passed in)
+            double hd = this.stopVariance == null ?
+                    posmit.estimateStopVariance(columns) : this.stopVariance;
 
-        double[] stopPrs = posmit.run(traj, hi, hd);
+            int hi = this.indexNeighbourhood == null ?
+                    posmit.estimateSearchRadius(columns, hd) : this.indexNeighbourhood;
+
+            stopPrs = posmit.run(columns, hi, hd);
+        }
         return posmit.toStopTrajectory(traj, stopPrs, minStopPr);
     }
 }
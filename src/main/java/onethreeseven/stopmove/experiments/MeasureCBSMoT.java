@@ -7,11 +7,16 @@ import onethreeseven.datastructures.model.STStopTrajectory;
 import onethreeseven.geo.projection.AbstractGeographicProjection;
 import onethreeseven.geo.projection.ProjectionEquirectangular;
 import onethreeseven.stopmove.algorithm.CBSMoT;
+import onethreeseven.stopmove.algorithm.CandidateStops;
+import onethreeseven.stopmove.algorithm.ColumnarTrajectory;
 import onethreeseven.stopmove.algorithm.POSMIT;
 import onethreeseven.stopmove.algorithm.StopClassificationStats;
+import onethreeseven.stopmove.algorithm.StopMoveLabels;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Map;
 
 /**
@@ -80,8 +85,11 @@ public class MeasureCBSMoT {
         final StopClassificationStats stats = new StopClassificationStats();
         final CBSMoT algo = new CBSMoT();
 
+        //the spatial part does not depend on the stop time, so only do it once
+        final CandidateStops candidates = algo.findClusters(new ColumnarTrajectory(traj), epMetres);
+
         for (long stopTime = minStopTime; stopTime <= maxStopTime; stopTime+=timeStepMillis) {
-            STStopTrajectory stopTraj = algo.run(traj, epMetres, stopTime);
+            StopMoveLabels stopTraj = new StopMoveLabels(traj, candidates.getStops(stopTime));
             stats.calculateStats(traj, stopTraj);
             System.out.println(epMetres + "," + stopTime +  "," + stats.getMCC());
         }
@@ -96,10 +104,18 @@ public class MeasureCBSMoT {
         final StopClassificationStats stats = new StopClassificationStats();
         final CBSMoT algo = new CBSMoT();
 
+        //the clusters only grow with eps, so label every eps in one sweep
+        final ArrayList<Double> epsValues = new ArrayList<>();
         for (double epsMetres = minSpatialParam; epsMetres <= maxSpatialParam; epsMetres+=spatialStepSize) {
-            STStopTrajectory stopTraj = algo.run(traj, epsMetres, minTimeMillis);
+            epsValues.add(epsMetres);
+        }
+        final double[] epsMetres = epsValues.stream().mapToDouble(Double::doubleValue).toArray();
+        final BitSet[] sweep = algo.runEpsSweep(new ColumnarTrajectory(traj), epsMetres, minTimeMillis);
+
+        for (int i = 0; i < epsMetres.length; i++) {
+            StopMoveLabels stopTraj = new StopMoveLabels(traj, sweep[i]);
             stats.calculateStats(traj, stopTraj);
-            System.out.println(epsMetres + "," + minTimeMillis +  "," + stats.getMCC());
+            System.out.println(epsMetres[i] + "," + minTimeMillis +  "," + stats.getMCC());
         }
     }
 
@@ -8,7 +8,9 @@ import onethreeseven.geo.projection.AbstractGeographicProjection;
 import onethreeseven.geo.projection.ProjectionEquirectangular;
 import onethreeseven.stopmove.algorithm.POSMIT;
 import onethreeseven.stopmove.algorithm.GBSMoT;
+import onethreeseven.stopmove.algorithm.CandidateStops;
 import onethreeseven.stopmove.algorithm.StopClassificationStats;
+import onethreeseven.stopmove.algorithm.StopMoveLabels;
 
 import java.io.File;
 import java.io.IOException;
@@ -80,8 +82,11 @@ public class MeasureGBSMoT {
         final StopClassificationStats stats = new StopClassificationStats();
         final GBSMoT algo = new GBSMoT();
 
+        //the spatial part does not depend on the stop time, so only do it once
+        final CandidateStops candidates = algo.findVisits(traj, epMetres);
+
         for (long stopTime = minStopTime; stopTime <= maxStopTime; stopTime+=timeStepMillis) {
-            STStopTrajectory stopTraj = algo.run(traj, epMetres, stopTime);
+            StopMoveLabels stopTraj = new StopMoveLabels(traj, candidates.getStops(stopTime));
             stats.calculateStats(traj, stopTraj);
             System.out.println(epMetres + "," + stopTime +  "," + stats.getMCC());
         }
@@ -97,7 +102,7 @@ public class MeasureGBSMoT {
         final GBSMoT algo = new GBSMoT();
 
         for (double regionSize = minRegionSize; regionSize <= maxRegionSize; regionSize+=regionSizeStep) {
-            STStopTrajectory stopTraj = algo.run(traj, regionSize, minTimeMillis);
+            StopMoveLabels stopTraj = algo.runLabels(traj, regionSize, minTimeMillis);
             stats.calculateStats(traj, stopTraj);
             System.out.println(regionSize + "," + minTimeMillis +  "," + stats.getMCC());
         }
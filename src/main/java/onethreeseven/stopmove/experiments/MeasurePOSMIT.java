@@ -6,10 +6,13 @@ import onethreeseven.datastructures.data.resolver.*;
 import onethreeseven.datastructures.model.STStopTrajectory;
 import onethreeseven.geo.projection.AbstractGeographicProjection;
 import onethreeseven.geo.projection.ProjectionEquirectangular;
+import onethreeseven.stopmove.algorithm.ColumnarTrajectory;
+import onethreeseven.stopmove.algorithm.MinStopPrCurve;
 import onethreeseven.stopmove.algorithm.POSMIT;
 import onethreeseven.stopmove.algorithm.StopClassificationStats;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Map;
 
 /**
@@ -37,7 +40,6 @@ public class MeasurePOSMIT {
     private static final boolean testMinStopPr = true;
 
     private static final POSMIT algo = new POSMIT();
-    private static final StopClassificationStats stats = new StopClassificationStats();
 
     public static void main(String[] args) throws IOException {
 
@@ -95,14 +97,14 @@ public class MeasurePOSMIT {
         System.out.println("Stop variance: " + stopVariance);
         System.out.println("Min Stop Pr, TP, TN, FP, FN, MCC");
 
-        final StopClassificationStats stats = new StopClassificationStats();
-
         double[] stopPrs = algo.run(traj, searchRadius, stopVariance);
         System.out.println("Estimated eps: " + algo.estimateMinStopPr(stopPrs)) ;
 
+        //sort the probabilities once, then every threshold is just a lookup
+        final MinStopPrCurve curve = new MinStopPrCurve(stopPrs, traj);
+
         for (double minStopPr = minPr; minStopPr <= maxPr+prStep; minStopPr+=prStep) {
-            STStopTrajectory stopTraj = algo.toStopTrajectory(traj, stopPrs, minStopPr);
-            stats.calculateStats(traj, stopTraj);
+            StopClassificationStats stats = curve.getStats(minStopPr);
             System.out.println(
                     minStopPr + "," +
                     stats.getTruePositiveRate() + "," +
@@ -121,9 +123,16 @@ public class MeasurePOSMIT {
         System.out.println("Max stop variance: " + maxStopVariance);
         System.out.println("Stop Variance, POSMIT_MinStopPr_Est, POSMIT_MinStopPr_025, POSMIT_MinStopPr_050, POSMIT_MinStopPr_075");
 
-
+        ArrayList<Double> stopVariances = new ArrayList<>();
         for (double stopVariance = minStopVariance; stopVariance <= maxStopVariance; stopVariance+=stopVarianceStep) {
-            runThrough25To75MinStopPr(traj, searchRadius, stopVariance);
+            stopVariances.add(stopVariance);
+        }
+        double[] stopVarianceArr = stopVariances.stream().mapToDouble(value -> value).toArray();
+
+        //compute every stop variance in one pass
+        double[][][] stopPrs = algo.runSweep(new ColumnarTrajectory(traj), new int[]{searchRadius}, stopVarianceArr);
+        for (int i = 0; i < stopVarianceArr.length; i++) {
+            runThrough25To75MinStopPr(traj, stopPrs[0][i], stopVarianceArr[i]);
         }
     }
 
@@ -132,27 +141,39 @@ public class MeasurePOSMIT {
         System.out.println("Stop variance: " + stopVariance);
         System.out.println("h_i, POSMIT_MinStopPr_Est, POSMIT_MinStopPr_025, POSMIT_MinStopPr_050, POSMIT_MinStopPr_075");
 
-        for (int searchRadius = minSearchRadius; searchRadius <= maxSearchRadius; searchRadius++) {
-            runThrough25To75MinStopPr(traj, searchRadius, stopVariance);
+        int[] searchRadii = new int[maxSearchRadius - minSearchRadius + 1];
+        for (int i = 0; i < searchRadii.length; i++) {
+            searchRadii[i] = minSearchRadius + i;
+        }
+
+        //compute every search radius in one pass
+        double[][][] stopPrs = algo.runSweep(new ColumnarTrajectory(traj), searchRadii, new double[]{stopVariance});
+        for (int i = 0; i < searchRadii.length; i++) {
+            runThrough25To75MinStopPr(traj, stopPrs[i][0], searchRadii[i]);
         }
     }
 
-    private static void runThrough25To75MinStopPr(STStopTrajectory traj, int searchRadius, double stopVariance){
-        double[] stopPrs = algo.run(traj, searchRadius, stopVariance);
-        System.out.print(stopVariance);
+    private static void runThrough25To75MinStopPr(STStopTrajectory traj, double[] stopPrs, int paramValue){
+        runThrough25To75MinStopPr(traj, stopPrs, String.valueOf(paramValue));
+    }
+
+    private static void runThrough25To75MinStopPr(STStopTrajectory traj, double[] stopPrs, double paramValue){
+        runThrough25To75MinStopPr(traj, stopPrs, String.valueOf(paramValue));
+    }
+
+    private static void runThrough25To75MinStopPr(STStopTrajectory traj, double[] stopPrs, String paramValue){
+        System.out.print(paramValue);
+
+        final MinStopPrCurve curve = new MinStopPrCurve(stopPrs, traj);
 
         //estimate the minStopPr and print the stats for that
         {
             double estimatedMinStopPr = algo.estimateMinStopPr(stopPrs);
-            STStopTrajectory stopTraj = algo.toStopTrajectory(traj, stopPrs, estimatedMinStopPr);
-            stats.calculateStats(traj, stopTraj);
-            System.out.print("," + stats.getMCC());
+            System.out.print("," + curve.getStats(estimatedMinStopPr).getMCC());
         }
 
         for (double minStopPr = 0.25; minStopPr <= 0.75; minStopPr+=0.25) {
-            STStopTrajectory stopTraj = algo.toStopTrajectory(traj, stopPrs, minStopPr);
-            stats.calculateStats(traj, stopTraj);
-            System.out.print("," + stats.getMCC());
+            System.out.print("," + curve.getStats(minStopPr).getMCC());
         }
 
         System.out.print("\n");
@@ -12,6 +12,8 @@ import onethreeseven.stopmove.algorithm.*;
 import java.io.File;
 import java.io.IOException;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Map;
 
 /**
@@ -94,33 +96,41 @@ public class VarySpatialParameters {
 
 
 
+        //CB-SMoT clusters only grow with eps, so label every spatial parameter in one sweep
+        final ArrayList<Double> spatialParamValues = new ArrayList<>();
         for (double spatialParam = minSpatialParam; spatialParam <= maxSpatialParam; spatialParam += spatialParamStep) {
+            spatialParamValues.add(spatialParam);
+        }
+        final double[] spatialParams = spatialParamValues.stream().mapToDouble(Double::doubleValue).toArray();
+        final BitSet[] cbsmotSweep = algoCBSMOT.runEpsSweep(new ColumnarTrajectory(traj), spatialParams, minStopTime);
+
+        for (int paramIdx = 0; paramIdx < spatialParams.length; paramIdx++) {
 
+            final double spatialParam = spatialParams[paramIdx];
             System.out.print(spatialParam + ",");
 
             //POSMIT
             {
                 double[] stopPrs = algoPOSMIT.run(traj, searchBandwidth, spatialParam);
+                MinStopPrCurve curve = new MinStopPrCurve(stopPrs, traj);
 
                 //do estimated minStopPr
                 double minStopPr = algoPOSMIT.estimateMinStopPr(stopPrs);
-                classificationStats.calculateStats(traj, algoPOSMIT.toStopTrajectory(traj, stopPrs, minStopPr));
-                System.out.print(classificationStats.getMCC() + ",");
+                System.out.print(curve.getStats(minStopPr).getMCC() + ",");
 
                 //posmit 0.25-0.75 minStopPr
                 for (minStopPr = 0.25; minStopPr <= 0.75; minStopPr+=0.25) {
-                    classificationStats.calculateStats(traj, algoPOSMIT.toStopTrajectory(traj, stopPrs, minStopPr));
-                    System.out.print(classificationStats.getMCC() + ",");
+                    System.out.print(curve.getStats(minStopPr).getMCC() + ",");
                 }
 
             }
 
             //CBSMOT
-            classificationStats.calculateStats(traj, algoCBSMOT.run(traj, spatialParam, minStopTime));
+            classificationStats.calculateStats(traj, new StopMoveLabels(traj, cbsmotSweep[paramIdx]));
             System.out.print(classificationStats.getMCC() + ",");
 
             //SMOT
-            classificationStats.calculateStats(traj, ALGO_SMOT.run(traj, spatialParam, minStopTime));
+            classificationStats.calculateStats(traj, ALGO_SMOT.runLabels(traj, spatialParam, minStopTime));
             System.out.print(classificationStats.getMCC());
 
             int paramDistance = (int) (Math.floor(spatialParam) - Math.floor(esimatedSpatialParam));
@@ -85,7 +85,7 @@ public class VaryingSamplingRate {
             {
                 double[] stopPrs = algoPOSMIT.run(resampledTraj, searchRadius, stopVariance);
                 double minStopPr = algoPOSMIT.estimateMinStopPr(stopPrs);
-                stats.calculateStats(resampledTraj, algoPOSMIT.toStopTrajectory(resampledTraj, stopPrs, minStopPr));
+                stats.calculateStats(resampledTraj, algoPOSMIT.toLabels(resampledTraj, stopPrs, minStopPr));
                 System.out.print(stats.getMCC() + ",");
 
 //                for (minStopPr = 0.25; minStopPr <= 0.75; minStopPr+=0.25) {
@@ -99,7 +99,7 @@ public class VaryingSamplingRate {
             //cbsmot
             {
                 stopVariance = 1;
-                STStopTrajectory computedTraj = algoCBSMoT.run(resampledTraj, stopVariance, samplingRate * searchRadius);
+                StopMoveLabels computedTraj = algoCBSMoT.runLabels(resampledTraj, stopVariance, samplingRate * searchRadius);
                 stats.calculateStats(resampledTraj, computedTraj);
                 System.out.print(stats.getMCC() + ",");
             }
@@ -107,7 +107,7 @@ public class VaryingSamplingRate {
             //smot
             {
                 stopVariance = 7; //Math.max(0.5, stopVariance);
-                STStopTrajectory computedTraj = algoGBSMoT.run(resampledTraj, stopVariance, samplingRate * searchRadius);
+                StopMoveLabels computedTraj = algoGBSMoT.runLabels(resampledTraj, stopVariance, samplingRate * searchRadius);
                 stats.calculateStats(resampledTraj, computedTraj);
                 System.out.print(stats.getMCC() + "\n");
             }
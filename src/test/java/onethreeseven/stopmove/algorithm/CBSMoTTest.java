@@ -0,0 +1,116 @@
+package onethreeseven.stopmove.algorithm;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+
+/**
+ * Test for {@link CBSMoT}
+ * @author Luke Bermingham
+ */
+public class CBSMoTTest {
+
+    private static final ColumnarTrajectory columns = new ColumnarTrajectory(TrajectoryFixtures.small);
+
+    @Test
+    public void testMatchesGrowingNeighbourhoods() {
+        CBSMoT algo = new CBSMoT();
+        for (long minTimeMillis : new long[]{0, 10000L, 60000L}) {
+            TrajectoryFixtures.assertStopsMatch(
+                    eps -> runGrowingNeighbourhoods(columns, eps, minTimeMillis),
+                    eps -> algo.run(columns, eps, minTimeMillis));
+        }
+    }
+
+    @Test
+    public void testSweepMatchesRun() {
+        CBSMoT algo = new CBSMoT();
+        long[] minTimes = new long[]{0, 5000L, 10000L, 60000L};
+        for (int i = 0; i < minTimes.length; i++) {
+            final int minTimeIdx = i;
+            TrajectoryFixtures.assertStopsMatch(
+                    eps -> algo.run(columns, eps, minTimes[minTimeIdx]),
+                    eps -> algo.runSweep(columns, eps, minTimes)[minTimeIdx]);
+        }
+    }
+
+    @Test
+    public void testEpsSweepMatchesRun() {
+        CBSMoT algo = new CBSMoT();
+        //deliberately out of order, with a repeat
+        double[] epsValues = new double[]{20, 1, 5, 0, 50, 5};
+        for (long minTimeMillis : new long[]{0, 10000L}) {
+            BitSet[] sweep = algo.runEpsSweep(columns, epsValues, minTimeMillis);
+            for (int i = 0; i < epsValues.length; i++) {
+                Assert.assertEquals(algo.run(columns, epsValues[i], minTimeMillis), sweep[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testCollapsedMatchesRun() {
+        CBSMoT algo = new CBSMoT();
+        ColumnarTrajectory duplicated = TrajectoryFixtures.withDuplicates(columns);
+        //only collapse identical fixes, so the results are exact
+        CollapsedTrajectory collapsed = new CollapsedTrajectory(duplicated, 0);
+        Assert.assertTrue(collapsed.size() < duplicated.size());
+        Assert.assertEquals(algo.run(duplicated, 0, 10000L), algo.run(collapsed, 0, 10000L));
+        TrajectoryFixtures.assertStopsMatch(
+                eps -> algo.run(duplicated, eps, 10000L),
+                eps -> algo.run(collapsed, eps, 10000L));
+    }
+
+    /**
+     * The original CB-SMoT: visit the entries slowest first, grow each entry's linear neighbourhood at its
+     * extremes until it stops growing, and label the neighbourhood as stops if it lasts long enough.
+     */
+    private static BitSet runGrowingNeighbourhoods(ColumnarTrajectory traj, double epsMeters, long minTimeMillis){
+        final int n = traj.size();
+        Integer[] indicesBySpeed = new Integer[n];
+        double[] speeds = new double[n];
+        for (int i = 0; i < n; i++) {
+            indicesBySpeed[i] = i;
+            speeds[i] = i == 0 ? 0 : traj.getEuclideanDistance(i, i - 1) / traj.getDeltaMillis(i - 1, i);
+        }
+        Arrays.sort(indicesBySpeed, Comparator.comparingDouble(i -> speeds[i]));
+
+        BitSet stops = new BitSet(n);
+        for (int idx : indicesBySpeed) {
+            if(stops.get(idx)){continue;}
+            int left = walk(traj, idx, epsMeters, -1);
+            int right = walk(traj, idx, epsMeters, 1);
+            if(right - left <= 0){continue;}
+            for (int grown = walk(traj, left, epsMeters, -1); grown != left; grown = walk(traj, left, epsMeters, -1)) {
+                left = grown;
+            }
+            for (int grown = walk(traj, right, epsMeters, 1); grown != right; grown = walk(traj, right, epsMeters, 1)) {
+                right = grown;
+            }
+            if(traj.getDeltaMillis(left, right) >= minTimeMillis){
+                stops.set(left, right + 1);
+            }
+        }
+        return stops;
+    }
+
+    /**
+     * @return The furthest entry from idx (in the given direction) whose path length from idx is within eps.
+     */
+    private static int walk(ColumnarTrajectory traj, int idx, double epsMeters, int direction){
+        int curIdx = idx;
+        double sumDist = 0;
+        while(curIdx + direction >= 0 && curIdx + direction < traj.size()){
+            double totalDistance = sumDist + traj.getEuclideanDistance(curIdx, curIdx + direction);
+            if(!(totalDistance <= epsMeters)){
+                break;
+            }
+            sumDist = totalDistance;
+            curIdx += direction;
+        }
+        return curIdx;
+    }
+
+}
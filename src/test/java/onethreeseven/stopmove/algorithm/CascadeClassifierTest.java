@@ -0,0 +1,53 @@
+package onethreeseven.stopmove.algorithm;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.BitSet;
+
+/**
+ * Test for {@link CascadeClassifier}
+ * @author Luke Bermingham
+ */
+public class CascadeClassifierTest {
+
+    private static final ColumnarTrajectory columns = new ColumnarTrajectory(TrajectoryFixtures.generate(5000, 200));
+
+    @Test
+    public void testNothingPrefilteredMatchesClassifier() {
+        POSMIT algo = new POSMIT();
+        //nothing is ever clearly moving or clearly stopped
+        CascadeClassifier cascade = new CascadeClassifier(
+                traj -> algo.runDecision(traj, 3, 2, 0.5), Double.POSITIVE_INFINITY, -1, Long.MAX_VALUE, 2, 0, 0);
+        CascadeClassifier.Result result = cascade.run(columns);
+        Assert.assertEquals(0, result.getPrefilteredCount());
+        Assert.assertEquals(0, result.getSkipRatio(), 0);
+        Assert.assertEquals(algo.runDecision(columns, 3, 2, 0.5), result.getStops());
+    }
+
+    @Test
+    public void testPOSMITCascadeMatchesDecision() {
+        for (POSMITKernel kernel : new POSMITKernel[]{
+                POSMITKernel.GAUSSIAN, POSMITKernel.TABULATED_GAUSSIAN, POSMITKernel.TRIWEIGHT,
+                POSMITKernel.EPANECHNIKOV}) {
+            POSMIT algo = new POSMIT(kernel);
+            int nPrefiltered = 0;
+            for (double stopVariance : new double[]{0.5, 2, 10}) {
+                for (double minStopPr : new double[]{0, 0.25, 0.5, 0.9, 1}) {
+                    BitSet expected = algo.runDecision(columns, 3, stopVariance, minStopPr);
+                    CascadeClassifier.Result result =
+                            CascadeClassifier.forPOSMIT(algo, 3, stopVariance, minStopPr).run(columns);
+                    //the prefilter only labels entries whose whole window agrees
+                    BitSet differences = (BitSet) expected.clone();
+                    differences.xor(result.getStops());
+                    Assert.assertFalse(differences.intersects(result.getPrefiltered()));
+                    //the ambiguous entries see their whole window too
+                    Assert.assertEquals(expected, result.getStops());
+                    nPrefiltered += result.getPrefilteredCount();
+                }
+            }
+            Assert.assertTrue(nPrefiltered > 0);
+        }
+    }
+
+}
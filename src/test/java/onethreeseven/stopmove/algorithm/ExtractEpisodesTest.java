@@ -0,0 +1,125 @@
+package onethreeseven.stopmove.algorithm;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.BitSet;
+
+/**
+ * Test for {@link ExtractEpisodes} and {@link StopMoveEpisode}
+ * @author Luke Bermingham
+ */
+public class ExtractEpisodesTest {
+
+    private final ExtractEpisodes algo = new ExtractEpisodes();
+
+    /**
+     * @return A trajectory where entry i is at (i, 2i) and is recorded at 1000i + 500 milliseconds.
+     */
+    private static ColumnarTrajectory makeTraj(int n){
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        long[] epochMillis = new long[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = i;
+            ys[i] = 2 * i;
+            epochMillis[i] = 1000L * i + 500;
+        }
+        return new ColumnarTrajectory(xs, ys, epochMillis, null);
+    }
+
+    private static void assertEpisode(StopMoveEpisode episode, boolean isStop, int startIdx, int endIdx){
+        Assert.assertEquals(isStop, episode.isStop());
+        Assert.assertEquals(startIdx, episode.getStartIdx());
+        Assert.assertEquals(endIdx, episode.getEndIdx());
+        Assert.assertEquals(endIdx - startIdx + 1, episode.size());
+        Assert.assertEquals(1000L * startIdx + 500, episode.getStartEpochMillis());
+        Assert.assertEquals(1000L * endIdx + 500, episode.getEndEpochMillis());
+        Assert.assertEquals(1000L * (endIdx - startIdx), episode.getDurationMillis());
+        double meanIdx = (startIdx + endIdx) / 2.0;
+        Assert.assertArrayEquals(new double[]{meanIdx, 2 * meanIdx}, episode.getCentroid(), 1e-9);
+    }
+
+    @Test
+    public void testEmpty() {
+        Assert.assertEquals(0, algo.extract(makeTraj(0), new BitSet()).length);
+    }
+
+    @Test
+    public void testAllStop() {
+        BitSet stops = new BitSet();
+        stops.set(0, 10);
+        StopMoveEpisode[] episodes = algo.extract(makeTraj(10), stops);
+        Assert.assertEquals(1, episodes.length);
+        assertEpisode(episodes[0], true, 0, 9);
+        Assert.assertTrue(Double.isNaN(episodes[0].getMeanStopPr()));
+    }
+
+    @Test
+    public void testAllMove() {
+        StopMoveEpisode[] episodes = algo.extract(makeTraj(10), new BitSet());
+        Assert.assertEquals(1, episodes.length);
+        assertEpisode(episodes[0], false, 0, 9);
+    }
+
+    @Test
+    public void testStopsPastTheEndAreIgnored() {
+        BitSet stops = new BitSet();
+        stops.set(5, 20);
+        StopMoveEpisode[] episodes = algo.extract(makeTraj(10), stops);
+        Assert.assertEquals(2, episodes.length);
+        assertEpisode(episodes[0], false, 0, 4);
+        assertEpisode(episodes[1], true, 5, 9);
+    }
+
+    @Test
+    public void testAlternating() {
+        BitSet stops = new BitSet();
+        for (int i = 1; i < 9; i += 2) {
+            stops.set(i);
+        }
+        StopMoveEpisode[] episodes = algo.extract(makeTraj(9), stops);
+        Assert.assertEquals(9, episodes.length);
+        for (int i = 0; i < episodes.length; i++) {
+            assertEpisode(episodes[i], i % 2 == 1, i, i);
+            Assert.assertEquals(0, episodes[i].getDurationMillis());
+        }
+    }
+
+    @Test
+    public void testTrailingEpisode() {
+        //ends with a move, which has no set bit after it
+        BitSet stops = new BitSet();
+        stops.set(3, 6);
+        StopMoveEpisode[] episodes = algo.extract(makeTraj(10), stops);
+        Assert.assertEquals(3, episodes.length);
+        assertEpisode(episodes[0], false, 0, 2);
+        assertEpisode(episodes[1], true, 3, 5);
+        assertEpisode(episodes[2], false, 6, 9);
+
+        //ends with a stop, which has no clear bit before the end
+        stops.set(8, 10);
+        episodes = algo.extract(makeTraj(10), stops);
+        Assert.assertEquals(4, episodes.length);
+        assertEpisode(episodes[2], false, 6, 7);
+        assertEpisode(episodes[3], true, 8, 9);
+    }
+
+    @Test
+    public void testMeanStopPr() {
+        BitSet stops = new BitSet();
+        stops.set(2, 4);
+        double[] stopPrs = new double[]{0.1, 0.3, 0.8, 0.9, 0.2};
+        StopMoveEpisode[] episodes = algo.extract(makeTraj(5), stops, stopPrs);
+        Assert.assertEquals(3, episodes.length);
+        Assert.assertEquals(0.2, episodes[0].getMeanStopPr(), 1e-9);
+        Assert.assertEquals(0.85, episodes[1].getMeanStopPr(), 1e-9);
+        Assert.assertEquals(0.2, episodes[2].getMeanStopPr(), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStopPrsMustMatchTrajectory() {
+        algo.extract(makeTraj(5), new BitSet(), new double[4]);
+    }
+
+}
@@ -0,0 +1,215 @@
+package onethreeseven.stopmove.algorithm;
+
+import onethreeseven.datastructures.model.STStopTrajectory;
+import onethreeseven.datastructures.model.STTrajectory;
+import onethreeseven.geo.model.LatLonBounds;
+import onethreeseven.geo.projection.ProjectionEquirectangular;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Test for {@link GBSMoT}
+ * @author Luke Bermingham
+ */
+public class GBSMoTTest {
+
+    @Test
+    public void testVisitLastingMinTimeIsStop() {
+        //parked in one spot for a minute, then driving away (each entry about a kilometre apart)
+        STTrajectory traj = new STTrajectory(false, new ProjectionEquirectangular());
+        LocalDateTime startTime = LocalDateTime.of(2017, 1, 1, 0, 0);
+        for (int i = 0; i <= 60; i++) {
+            traj.addGeographic(new double[]{-16.9186, 145.7781}, startTime.plusSeconds(i));
+        }
+        for (int i = 1; i <= 10; i++) {
+            traj.addGeographic(new double[]{-16.9186 + i * 0.01, 145.7781}, startTime.plusSeconds(60 + i));
+        }
+
+        //the visit lasts from its first to its last entry (60 seconds), so it is a stop
+        STStopTrajectory output = new GBSMoT().run(traj, 50, 60000L);
+        for (int i = 0; i < output.size(); i++) {
+            Assert.assertEquals(i <= 60, output.get(i).isStopped());
+        }
+
+        //one millisecond longer than the visit and it is a move
+        output = new GBSMoT().run(traj, 50, 60001L);
+        for (int i = 0; i < output.size(); i++) {
+            Assert.assertFalse(output.get(i).isStopped());
+        }
+    }
+
+    @Test
+    public void testEntriesOutsideEveryRegionStayInOrder() {
+        //three entries in the region, one outside it, then three back in the region (one second apart)
+        STTrajectory traj = new STTrajectory(false, new ProjectionEquirectangular());
+        LocalDateTime startTime = LocalDateTime.of(2017, 1, 1, 0, 0);
+        for (int i = 0; i < 7; i++) {
+            double lat = i == 3 ? -16.8 : -16.9186;
+            traj.addGeographic(new double[]{lat, 145.7781}, startTime.plusSeconds(i));
+        }
+        LatLonBounds region = new LatLonBounds(-16.92, -16.91, 145.77, 145.78);
+
+        //the outside entry is a move and ends the first visit, both visits last two seconds
+        STStopTrajectory output = new GBSMoT().run(traj, Collections.singletonList(region), 2000L);
+        Assert.assertEquals(traj.size(), output.size());
+        for (int i = 0; i < output.size(); i++) {
+            Assert.assertEquals(startTime.plusSeconds(i), output.get(i).getTime());
+            Assert.assertEquals(i != 3, output.get(i).isStopped());
+        }
+    }
+
+    @Test
+    public void testRegionIndexMatchesLinearScan() {
+        Random rand = new Random(137);
+        List<LatLonBounds> regions = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            double lat = -17 + rand.nextDouble();
+            double lon = 145 + rand.nextDouble();
+            //mostly small (overlapping) regions, with some that span many cells of the finest grid
+            double size = rand.nextInt(10) == 0 ? rand.nextDouble() : rand.nextDouble() * 0.01;
+            regions.add(new LatLonBounds(lat, lat + size, lon, lon + size));
+        }
+        //regions the grids cannot hold
+        regions.add(100, new LatLonBounds(-17.5, -16.5, 145.5, 145.4));
+        regions.add(200, new LatLonBounds(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 145.5, 145.6));
+        regions.add(new LatLonBounds(-90, 90, -180, 180));
+
+        RegionIndex index = new RegionIndex(regions);
+        Assert.assertTrue(index.getLevelCount() > 1);
+        for (int i = 0; i < 20000; i++) {
+            double lat = -17.2 + rand.nextDouble() * 1.4;
+            double lon = 144.8 + rand.nextDouble() * 1.4;
+            Assert.assertEquals(getEnvelopingRegion(regions, lat, lon), index.getEnvelopingRegion(lat, lon));
+        }
+        //region corners and edges
+        for (LatLonBounds region : regions) {
+            Assert.assertEquals(getEnvelopingRegion(regions, region.getMinLat(), region.getMinLon()),
+                    index.getEnvelopingRegion(region.getMinLat(), region.getMinLon()));
+            Assert.assertEquals(getEnvelopingRegion(regions, region.getMaxLat(), region.getMaxLon()),
+                    index.getEnvelopingRegion(region.getMaxLat(), region.getMaxLon()));
+        }
+        Assert.assertEquals(-1, new RegionIndex(new ArrayList<>()).getEnvelopingRegion(-17, 145));
+    }
+
+    @Test
+    public void testSparseRegionsMatchDenseGrid() {
+        GBSMoT algo = new GBSMoT();
+        ColumnarTrajectory columns = new ColumnarTrajectory(TrajectoryFixtures.small);
+        double[] bottomLeft = getBottomLeft(columns);
+        for (double regionSize : new double[]{2, 10, 50}) {
+            List<LatLonBounds> expected = getDenseRegions(columns, bottomLeft, regionSize);
+            List<LatLonBounds> actual = algo.getRegions(columns, bottomLeft, regionSize);
+            Assert.assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertEquals(expected.get(i).getMinLat(), actual.get(i).getMinLat(), 0);
+                Assert.assertEquals(expected.get(i).getMaxLat(), actual.get(i).getMaxLat(), 0);
+                Assert.assertEquals(expected.get(i).getMinLon(), actual.get(i).getMinLon(), 0);
+                Assert.assertEquals(expected.get(i).getMaxLon(), actual.get(i).getMaxLon(), 0);
+            }
+            Assert.assertEquals(algo.run(columns, expected, 10000L), algo.run(columns, regionSize, 10000L));
+        }
+    }
+
+    @Test
+    public void testCartesianMatchesGeographic() {
+        GBSMoT algo = new GBSMoT();
+        ColumnarTrajectory columns = new ColumnarTrajectory(TrajectoryFixtures.small);
+        for (double regionSize : new double[]{2, 10, 50}) {
+            for (long minTimeMillis : new long[]{0, 10000L, 60000L}) {
+                Assert.assertEquals(
+                        algo.run(columns, regionSize, minTimeMillis),
+                        algo.runCartesian(columns, regionSize, minTimeMillis));
+            }
+        }
+    }
+
+    @Test
+    public void testSharedIndexMatchesRegions() throws Exception {
+        GBSMoT algo = new GBSMoT();
+        ColumnarTrajectory columns = new ColumnarTrajectory(TrajectoryFixtures.small);
+        List<LatLonBounds> regions = algo.getRegions(columns, getBottomLeft(columns), 10);
+        RegionIndex index = new RegionIndex(regions);
+
+        //classify pieces of the trajectory against the same index from several threads at once
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<BitSet>> futures = new ArrayList<>();
+        List<ColumnarTrajectory> pieces = new ArrayList<>();
+        for (int start = 0; start < columns.size(); start += 250) {
+            ColumnarTrajectory piece = columns.subTrajectory(start, Math.min(columns.size(), start + 500));
+            pieces.add(piece);
+            futures.add(executor.submit(() -> algo.run(piece, index, 10000L)));
+        }
+        for (int i = 0; i < pieces.size(); i++) {
+            Assert.assertEquals(algo.run(pieces.get(i), regions, 10000L), futures.get(i).get());
+        }
+        executor.shutdown();
+    }
+
+    private static double[] getBottomLeft(ColumnarTrajectory traj){
+        double[] bottomLeft = new double[]{Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        for (int i = 0; i < traj.size(); i++) {
+            bottomLeft[0] = Math.min(bottomLeft[0], traj.getX()[i]);
+            bottomLeft[1] = Math.min(bottomLeft[1], traj.getY()[i]);
+        }
+        return bottomLeft;
+    }
+
+    /**
+     * The original GBSMoT grid: a dense array of cells over the trajectory's extent,
+     * read column by column, keeping only the cells an entry fell in.
+     */
+    private static List<LatLonBounds> getDenseRegions(ColumnarTrajectory traj, double[] bottomLeft, double regionSize){
+        int maxCellX = 0;
+        int maxCellY = 0;
+        for (int i = 0; i < traj.size(); i++) {
+            maxCellX = Math.max(maxCellX, (int) Math.floor(Math.abs(traj.getX()[i] - bottomLeft[0]) / regionSize));
+            maxCellY = Math.max(maxCellY, (int) Math.floor(Math.abs(traj.getY()[i] - bottomLeft[1]) / regionSize));
+        }
+        LatLonBounds[][] grid = new LatLonBounds[maxCellX + 1][maxCellY + 1];
+        for (int i = 0; i < traj.size(); i++) {
+            int x = (int) Math.floor(Math.abs(traj.getX()[i] - bottomLeft[0]) / regionSize);
+            int y = (int) Math.floor(Math.abs(traj.getY()[i] - bottomLeft[1]) / regionSize);
+            if(grid[x][y] == null){
+                double minX = bottomLeft[0] + (regionSize * x);
+                double maxX = minX + regionSize;
+                double minY = bottomLeft[1] + (regionSize * y);
+                double maxY = minY + regionSize;
+                double[] minLatLon = traj.getProjection().cartesianToGeographic(new double[]{minX, minY});
+                double[] maxLatLon = traj.getProjection().cartesianToGeographic(new double[]{maxX, maxY});
+                grid[x][y] = new LatLonBounds(minLatLon[0], maxLatLon[0], minLatLon[1], maxLatLon[1]);
+            }
+        }
+        List<LatLonBounds> regions = new ArrayList<>();
+        for (LatLonBounds[] column : grid) {
+            for (LatLonBounds region : column) {
+                if(region != null){
+                    regions.add(region);
+                }
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * @return The first region that contains the point (as the original GBSMoT found it), or -1 if none do.
+     */
+    private static int getEnvelopingRegion(List<LatLonBounds> regions, double lat, double lon){
+        for (int i = 0; i < regions.size(); i++) {
+            if(regions.get(i).contains(lat, lon)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
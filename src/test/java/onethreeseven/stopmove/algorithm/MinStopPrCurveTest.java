@@ -0,0 +1,51 @@
+package onethreeseven.stopmove.algorithm;
+
+import onethreeseven.datastructures.model.STStopTrajectory;
+import onethreeseven.geo.projection.ProjectionEquirectangular;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.BitSet;
+
+/**
+ * Test for {@link MinStopPrCurve}
+ * @author Luke Bermingham
+ */
+public class MinStopPrCurveTest {
+
+    @Test
+    public void testCountsMatchThresholding() {
+        double[] stopPrs = new double[]{0.9, 0.1, 0.5, 0.5, 0.7, 0.2, Double.NaN, 0.95};
+        BitSet truthStops = new BitSet();
+        truthStops.set(0);
+        truthStops.set(2);
+        truthStops.set(4);
+        truthStops.set(6);
+
+        MinStopPrCurve curve = new MinStopPrCurve(stopPrs, truthStops);
+
+        Assert.assertArrayEquals(new double[]{0.1, 0.2, 0.5, 0.7, 0.9, 0.95}, curve.getDistinctThresholds(), 0);
+
+        for (double minStopPr : new double[]{0, 0.1, 0.3, 0.5, 0.7, 0.92, 1, Double.NaN}) {
+            int tp = 0, tn = 0, fp = 0, fn = 0;
+            for (int i = 0; i < stopPrs.length; i++) {
+                boolean isStopped = stopPrs[i] >= minStopPr;
+                if(isStopped && truthStops.get(i)){tp++;}
+                else if(!isStopped && !truthStops.get(i)){tn++;}
+                else if(isStopped){fp++;}
+                else{fn++;}
+            }
+            StopClassificationStats stats = curve.getStats(minStopPr);
+            Assert.assertEquals(tp, stats.getTruePositive());
+            Assert.assertEquals(tn, stats.getTrueNegative());
+            Assert.assertEquals(fp, stats.getFalsePositive());
+            Assert.assertEquals(fn, stats.getFalseNegative());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruthMustMatchStopPrs() {
+        new MinStopPrCurve(new double[]{0.5}, new STStopTrajectory(false, new ProjectionEquirectangular()));
+    }
+
+}
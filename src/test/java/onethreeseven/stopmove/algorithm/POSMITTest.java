@@ -0,0 +1,160 @@
+package onethreeseven.stopmove.algorithm;
+
+import onethreeseven.datastructures.model.STStopTrajectory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Test for {@link POSMIT}
+ * @author Luke Bermingham
+ */
+public class POSMITTest {
+
+    private static final STStopTrajectory traj = TrajectoryFixtures.small;
+    private static final ColumnarTrajectory columns = new ColumnarTrajectory(traj);
+
+    @Test
+    public void testSlidingWindowMatchesRun() {
+        POSMIT algo = new POSMIT();
+        double stopVariance = algo.estimateStopVariance(traj);
+        TrajectoryFixtures.assertStopPrsMatch(
+                r -> algo.run(traj, r, stopVariance),
+                r -> algo.runSlidingWindow(traj, r, stopVariance), 1e-9);
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        POSMIT algo = new POSMIT();
+        ColumnarTrajectory large = TrajectoryFixtures.generateLarge();
+        double stopVariance = algo.estimateStopVariance(large);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        TrajectoryFixtures.assertStopPrsMatch(
+                r -> algo.run(large, r, stopVariance),
+                r -> algo.runParallel(large, r, stopVariance, pool), 0);
+        pool.shutdown();
+    }
+
+    @Test
+    public void testStreamingMatchesRun() {
+        for (POSMITKernel kernel : new POSMITKernel[]{POSMITKernel.GAUSSIAN, POSMITKernel.TRIWEIGHT}) {
+            POSMIT algo = new POSMIT(kernel);
+            double stopVariance = algo.estimateStopVariance(columns);
+            for (int searchRadius : TrajectoryFixtures.searchRadii) {
+                double[] expected = algo.run(columns, searchRadius, stopVariance);
+                double[] actual = new double[columns.size()];
+                StreamingPOSMIT streaming = new StreamingPOSMIT(searchRadius, stopVariance, 0.5,
+                        Integer.MAX_VALUE, kernel, (index, epochMillis, stopPr, isStopped) -> actual[(int) index] = stopPr);
+                for (int i = 0; i < columns.size(); i++) {
+                    streaming.add(columns.getX()[i], columns.getY()[i], columns.getEpochMillis()[i]);
+                    //nothing waits longer than the emit delay
+                    Assert.assertTrue(streaming.getPendingCount() <= streaming.getEmitDelay());
+                }
+                streaming.flush();
+                Assert.assertArrayEquals(expected, actual, 0);
+            }
+        }
+    }
+
+    @Test
+    public void testSweepMatchesRun() {
+        for (POSMITKernel kernel : new POSMITKernel[]{POSMITKernel.GAUSSIAN, POSMITKernel.TRIWEIGHT}) {
+            POSMIT algo = new POSMIT(kernel);
+            double stopVariance = algo.estimateStopVariance(columns);
+            double[] stopVariances = new double[]{stopVariance, 0.5 * stopVariance, 3 * stopVariance};
+            double[][][] sweep = algo.runSweep(columns, TrajectoryFixtures.searchRadii, stopVariances);
+            for (int i = 0; i < TrajectoryFixtures.searchRadii.length; i++) {
+                for (int j = 0; j < stopVariances.length; j++) {
+                    double[] expected = algo.run(columns, TrajectoryFixtures.searchRadii[i], stopVariances[j]);
+                    Assert.assertArrayEquals(expected, sweep[i][j], 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAutoMatchesEstimateThenRun() {
+        POSMIT algo = new POSMIT();
+        double stopVariance = algo.estimateStopVariance(columns);
+        int searchRadius = algo.estimateSearchRadius(columns, stopVariance);
+
+        POSMIT.AutoResult result = algo.runAuto(columns);
+        Assert.assertEquals(stopVariance, result.getStopVariance(), 0);
+        Assert.assertEquals(searchRadius, result.getSearchRadius());
+        Assert.assertArrayEquals(algo.run(columns, searchRadius, stopVariance), result.getStopProbabilities(), 0);
+    }
+
+    @Test
+    public void testTabulatedGaussianErrorIsBounded() {
+        for (double x = -10; x <= 10; x += 1e-4) {
+            Assert.assertEquals(POSMITKernel.GAUSSIAN.weight(x), POSMITKernel.TABULATED_GAUSSIAN.weight(x), 5e-7);
+        }
+    }
+
+    @Test
+    public void testKernelsMatchRun() {
+        for (POSMITKernel kernel : POSMITKernel.values()) {
+            POSMIT algo = new POSMIT(kernel);
+            double stopVariance = algo.estimateStopVariance(columns);
+            TrajectoryFixtures.assertStopPrsMatch(
+                    r -> algo.run(traj, r, stopVariance),
+                    r -> algo.run(columns, r, stopVariance), 1e-9);
+        }
+    }
+
+    @Test
+    public void testDecisionMatchesThresholding() {
+        for (POSMITKernel kernel : new POSMITKernel[]{POSMITKernel.GAUSSIAN, POSMITKernel.TRIWEIGHT}) {
+            POSMIT algo = new POSMIT(kernel);
+            double stopVariance = algo.estimateStopVariance(columns);
+            for (int searchRadius : TrajectoryFixtures.searchRadii) {
+                double[] stopPrs = algo.run(columns, searchRadius, stopVariance);
+                //include thresholds that exactly equal some of the stop probabilities
+                for (double minStopPr : new double[]{0, 0.25, 0.5, 0.75, 1, stopPrs[0], stopPrs[stopPrs.length / 2]}) {
+                    BitSet expected = new BitSet();
+                    for (int i = 0; i < stopPrs.length; i++) {
+                        if(stopPrs[i] >= minStopPr){
+                            expected.set(i);
+                        }
+                    }
+                    Assert.assertEquals(expected, algo.runDecision(columns, searchRadius, stopVariance, minStopPr));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAdaptiveRefinesExactly() {
+        POSMIT algo = new POSMIT();
+        double stopVariance = algo.estimateStopVariance(columns);
+        double[] expected = algo.run(columns, 10, stopVariance);
+
+        POSMIT.AdaptiveResult result = algo.runAdaptive(columns, 10, stopVariance, 0.5);
+        BitSet refined = result.getRefined();
+        for (int i = refined.nextSetBit(0); i >= 0; i = refined.nextSetBit(i + 1)) {
+            Assert.assertEquals(expected[i], result.getStopProbabilities()[i], 0);
+        }
+
+        //a band covering every probability refines everything
+        result = algo.runAdaptive(columns, 10, stopVariance, 0.5, 2, 1, 0);
+        Assert.assertEquals(1, result.getRefinedFraction(), 0);
+        Assert.assertArrayEquals(expected, result.getStopProbabilities(), 0);
+    }
+
+    @Test
+    public void testCollapsedMatchesRun() {
+        ColumnarTrajectory duplicated = TrajectoryFixtures.withDuplicates(columns);
+        //only collapse identical fixes, so the results are exact
+        CollapsedTrajectory collapsed = new CollapsedTrajectory(duplicated, 0);
+        for (POSMITKernel kernel : new POSMITKernel[]{POSMITKernel.GAUSSIAN, POSMITKernel.EPANECHNIKOV}) {
+            POSMIT algo = new POSMIT(kernel);
+            double stopVariance = algo.estimateStopVariance(duplicated);
+            TrajectoryFixtures.assertStopPrsMatch(
+                    r -> algo.run(duplicated, r, stopVariance),
+                    r -> algo.run(collapsed, r, stopVariance), 1e-9);
+        }
+    }
+
+}
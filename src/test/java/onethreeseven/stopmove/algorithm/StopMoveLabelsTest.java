@@ -0,0 +1,54 @@
+package onethreeseven.stopmove.algorithm;
+
+import onethreeseven.datastructures.model.STStopTrajectory;
+import onethreeseven.datastructures.model.STTrajectory;
+import onethreeseven.datastructures.model.TimeAndStop;
+import onethreeseven.geo.projection.ProjectionEquirectangular;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.BitSet;
+
+/**
+ * Test for {@link StopMoveLabels}
+ * @author Luke Bermingham
+ */
+public class StopMoveLabelsTest {
+
+    @Test
+    public void testStopsPastTheEndAreNotCounted() {
+        STTrajectory traj = new STTrajectory(false, new ProjectionEquirectangular());
+        STStopTrajectory truth = new STStopTrajectory(false, new ProjectionEquirectangular());
+        LocalDateTime startTime = LocalDateTime.of(2017, 1, 1, 0, 0);
+        for (int i = 0; i < 5; i++) {
+            double[] latlon = new double[]{-16.9186 + i * 0.001, 145.7781};
+            traj.addGeographic(latlon, startTime.plusSeconds(i));
+            truth.addGeographic(latlon, new TimeAndStop(startTime.plusSeconds(i), i == 1));
+        }
+        BitSet stops = new BitSet();
+        stops.set(1);
+        stops.set(3);
+        stops.set(7);
+        stops.set(100);
+
+        StopMoveLabels labels = new StopMoveLabels(traj, stops);
+        Assert.assertEquals(2, labels.getnStops());
+        Assert.assertEquals(3, labels.getnMoves());
+        BitSet expected = new BitSet();
+        expected.set(1);
+        expected.set(3);
+        Assert.assertEquals(expected, labels.getStops());
+        //the given stops are left alone
+        Assert.assertEquals(4, stops.cardinality());
+
+        //only entry 3 is a false positive
+        StopClassificationStats stats = new StopClassificationStats();
+        stats.calculateStats(truth, labels);
+        Assert.assertEquals(1, stats.getTruePositive());
+        Assert.assertEquals(1, stats.getFalsePositive());
+        Assert.assertEquals(3, stats.getTrueNegative());
+        Assert.assertEquals(0, stats.getFalseNegative());
+    }
+
+}
@@ -0,0 +1,120 @@
+package onethreeseven.stopmove.algorithm;
+
+import onethreeseven.datastructures.model.STStopTrajectory;
+import onethreeseven.datastructures.util.DataGeneratorUtil;
+import org.junit.Assert;
+
+import java.util.BitSet;
+
+/**
+ * Trajectories and checks shared by the stop/move algorithm tests.
+ * @author Luke Bermingham
+ */
+final class TrajectoryFixtures {
+
+    /**
+     * The POSMIT search radii the tests try.
+     */
+    static final int[] searchRadii = new int[]{1, 3, 10};
+
+    /**
+     * The CB-SMoT eps values (in meters) the tests try.
+     */
+    static final double[] epsValues = new double[]{1, 5, 20};
+
+    /**
+     * A small trajectory (2000 entries with 100 stops).
+     */
+    static final STStopTrajectory small = generate(2000, 100);
+
+    private TrajectoryFixtures(){}
+
+    /**
+     * @param nEntries How many entries the trajectory has.
+     * @param nStops How many stop episodes the trajectory has.
+     * @return A synthetic trajectory near Cairns with one second between entries, labelled with its true stops.
+     */
+    static STStopTrajectory generate(int nEntries, int nStops){
+        return DataGeneratorUtil.generateTrajectoryWithStops(
+                nEntries,
+                nStops,
+                1000L,
+                10000,
+                20,
+                0.3,
+                -16.9186,
+                145.7781);
+    }
+
+    /**
+     * @return A trajectory large enough that the parallel algorithms split it into several chunks.
+     */
+    static ColumnarTrajectory generateLarge(){
+        return new ColumnarTrajectory(generate(100000, 5000));
+    }
+
+    /**
+     * @return The trajectory with some fixes repeated, as if the GPS unit was parked.
+     */
+    static ColumnarTrajectory withDuplicates(ColumnarTrajectory traj){
+        final int n = traj.size();
+        final int[] copies = new int[n];
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            copies[i] = 1 + (i % 7 == 0 ? 20 : i % 3);
+            total += copies[i];
+        }
+        final double[] xs = new double[total];
+        final double[] ys = new double[total];
+        final long[] epochMillis = new long[total];
+        int j = 0;
+        for (int i = 0; i < n; i++) {
+            for (int copy = 0; copy < copies[i]; copy++, j++) {
+                xs[j] = traj.getX()[i];
+                ys[j] = traj.getY()[i];
+                epochMillis[j] = traj.getEpochMillis()[i] + copy * 10L;
+            }
+        }
+        return new ColumnarTrajectory(xs, ys, epochMillis, traj.getProjection());
+    }
+
+    /**
+     * Stop probabilities for a given search radius.
+     */
+    @FunctionalInterface
+    interface StopPrsForRadius {
+        double[] run(int searchRadius);
+    }
+
+    /**
+     * Stop labels for a given eps.
+     */
+    @FunctionalInterface
+    interface StopsForEps {
+        BitSet run(double epsMeters);
+    }
+
+    /**
+     * Checks two ways of computing POSMIT stop probabilities agree for every search radius in {@link #searchRadii}.
+     * @param expected The reference implementation.
+     * @param actual The implementation under test.
+     * @param delta How far apart each probability may be.
+     */
+    static void assertStopPrsMatch(StopPrsForRadius expected, StopPrsForRadius actual, double delta){
+        for (int searchRadius : searchRadii) {
+            Assert.assertArrayEquals(expected.run(searchRadius), actual.run(searchRadius), delta);
+        }
+    }
+
+    /**
+     * Checks two ways of computing CB-SMoT stops agree for every eps in {@link #epsValues}.
+     * @param expected The reference implementation.
+     * @param actual The implementation under test.
+     */
+    static void assertStopsMatch(StopsForEps expected, StopsForEps actual){
+        for (double epsMeters : epsValues) {
+            Assert.assertEquals(expected.run(epsMeters), actual.run(epsMeters));
+        }
+    }
+
+}
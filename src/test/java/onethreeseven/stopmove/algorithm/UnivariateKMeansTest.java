@@ -0,0 +1,59 @@
+package onethreeseven.stopmove.algorithm;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Test for {@link UnivariateKMeans}
+ * @author Luke Bermingham
+ */
+public class UnivariateKMeansTest {
+
+    @Test
+    public void testTwoClustersAreOptimal() {
+        Random rand = new Random(137);
+        for (int trial = 0; trial < 50; trial++) {
+            double[] data = new double[2 + rand.nextInt(200)];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = rand.nextBoolean() ? rand.nextGaussian() : 5 + rand.nextGaussian() * 2;
+            }
+            UnivariateKMeans.Cluster[] clusters = new UnivariateKMeans().run(data, 2);
+
+            //brute force every split of the sorted data
+            double[] sorted = data.clone();
+            Arrays.sort(sorted);
+            double bestCost = Double.POSITIVE_INFINITY;
+            for (int split = 1; split < sorted.length; split++) {
+                bestCost = Math.min(bestCost,
+                        sse(Arrays.copyOfRange(sorted, 0, split)) + sse(Arrays.copyOfRange(sorted, split, sorted.length)));
+            }
+
+            Assert.assertEquals(data.length, clusters[0].size() + clusters[1].size());
+            Assert.assertTrue(clusters[0].getMax() <= clusters[1].getMin());
+            double cost = sse(Arrays.copyOfRange(sorted, 0, clusters[0].size())) +
+                    sse(Arrays.copyOfRange(sorted, clusters[0].size(), sorted.length));
+            Assert.assertEquals(bestCost, cost, 1e-9);
+        }
+    }
+
+    @Test
+    public void testFewerValuesThanClusters() {
+        UnivariateKMeans.Cluster[] clusters = new UnivariateKMeans().run(new double[]{3, 1}, 3);
+        Assert.assertEquals(1, clusters[0].getMin(), 0);
+        Assert.assertEquals(3, clusters[1].getMax(), 0);
+        Assert.assertEquals(0, clusters[2].size());
+    }
+
+    private static double sse(double[] values){
+        double mean = Arrays.stream(values).average().orElse(0);
+        double sse = 0;
+        for (double value : values) {
+            sse += (value - mean) * (value - mean);
+        }
+        return sse;
+    }
+
+}